@@ -0,0 +1,40 @@
+package com.example.android.sunshine.app;
+
+import com.example.android.sunshine.app.data.TestProviderBenchmark;
+import com.example.android.sunshine.app.sync.TestSyncBenchmark;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The benchmarks, which the {@link FullTestSuite} leaves out.  Run them with
+ * {@code adb shell am instrument -w -e class com.example.android.sunshine.app.BenchmarkSuite
+ * com.example.android.sunshine.app.test/android.test.InstrumentationTestRunner}.
+ */
+public class BenchmarkSuite extends TestSuite {
+
+    private static final List<Class<? extends TestCase>> BENCHMARKS =
+            Arrays.<Class<? extends TestCase>>asList(
+                    TestProviderBenchmark.class,
+                    TestSyncBenchmark.class);
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite(BenchmarkSuite.class.getName());
+        for (Class<? extends TestCase> benchmark : BENCHMARKS) {
+            suite.addTestSuite(benchmark);
+        }
+        return suite;
+    }
+
+    static boolean isBenchmark(Class<?> testClass) {
+        return BENCHMARKS.contains(testClass);
+    }
+
+    public BenchmarkSuite() {
+        super();
+    }
+}
@@ -22,8 +22,25 @@ import junit.framework.TestSuite;
 
 public class FullTestSuite extends TestSuite {
     public static Test suite() {
-        return new TestSuiteBuilder(FullTestSuite.class)
-                .includeAllPackagesUnderHere().build();
+        return withoutBenchmarks(new TestSuiteBuilder(FullTestSuite.class)
+                .includeAllPackagesUnderHere().build());
+    }
+
+    /**
+     * Drops the benchmarks, which take minutes and only log their numbers.  They are run
+     * through the {@link BenchmarkSuite}.
+     */
+    private static TestSuite withoutBenchmarks(TestSuite suite) {
+        TestSuite filtered = new TestSuite(suite.getName());
+        for (int i = 0; i < suite.testCount(); i++) {
+            Test test = suite.testAt(i);
+            if (test instanceof TestSuite) {
+                filtered.addTest(withoutBenchmarks((TestSuite) test));
+            } else if (!BenchmarkSuite.isBenchmark(test.getClass())) {
+                filtered.addTest(test);
+            }
+        }
+        return filtered;
     }
 
     public FullTestSuite() {
@@ -18,9 +18,18 @@ package com.example.android.sunshine.app.data;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
 import android.test.AndroidTestCase;
 
 import java.util.HashSet;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class TestDb extends AndroidTestCase {
 
@@ -177,6 +186,76 @@ public class TestDb extends AndroidTestCase {
     }
 
 
+    /*
+        Readers must not wait for a sync which is writing.  While one thread holds a write
+        transaction, another one has to be able to read the last committed data.
+     */
+    public void testReadDuringWrite() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            // no write-ahead logging, readers wait for the writer
+            return;
+        }
+        final long locationRowId = insertLocation();
+        final SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+
+        Cursor journalCursor = db.rawQuery("PRAGMA journal_mode", null);
+        assertTrue(journalCursor.moveToFirst());
+        assertEquals("Error: Write-ahead logging not enabled",
+                "wal", journalCursor.getString(0).toLowerCase(Locale.US));
+        journalCursor.close();
+
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch readDone = new CountDownLatch(1);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                db.beginTransaction();
+                try {
+                    db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                            TestUtilities.createWeatherValues(locationRowId));
+                    writing.countDown();
+                    // hold the transaction until the reader is done, or has given up
+                    readDone.await(10, TimeUnit.SECONDS);
+                    db.setTransactionSuccessful();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        });
+        writer.start();
+        assertTrue("Error: Writer didn't start", writing.await(5, TimeUnit.SECONDS));
+
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> readCount = reader.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                            null, null, null, null, null, null);
+                    int count = cursor.getCount();
+                    cursor.close();
+                    return count;
+                }
+            });
+            assertEquals("Error: Reader saw the uncommitted row",
+                    0, (int) readCount.get(2, TimeUnit.SECONDS));
+        } catch (TimeoutException e) {
+            fail("Error: Reader blocked behind the write transaction");
+        } finally {
+            readDone.countDown();
+            writer.join();
+            reader.shutdownNow();
+        }
+
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                null, null, null, null, null, null);
+        assertEquals("Error: Row of the write transaction not committed", 1, cursor.getCount());
+        cursor.close();
+        db.close();
+    }
+
     /*
         Students: This is a helper method for the testWeatherTable quiz. You can move your
         code from testLocationTable to here so that you can call this code from both
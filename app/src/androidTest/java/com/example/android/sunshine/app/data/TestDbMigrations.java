@@ -0,0 +1,187 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Each migration step is tested on its own, starting from the schema of the version it
+    upgrades.  A complete upgrade of a database with data has to keep the data and end up with
+    the same schema as a database created from scratch.
+ */
+public class TestDbMigrations extends AndroidTestCase {
+
+    // The schema of version 2, as it was shipped
+    private static final String[] VERSION_2_SCHEMA = {
+            "CREATE TABLE location (_id INTEGER PRIMARY KEY,location_setting TEXT UNIQUE NOT NULL, " +
+                    "city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL  );",
+            "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT,location_id INTEGER NOT NULL, " +
+                    "date INTEGER NOT NULL, short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL," +
+                    "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, " +
+                    "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, " +
+                    " FOREIGN KEY (location_id) REFERENCES location (_id),  " +
+                    "UNIQUE (date, location_id) ON CONFLICT REPLACE);"
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private static void createVersion2(SQLiteDatabase db) {
+        for (String statement : VERSION_2_SCHEMA) {
+            db.execSQL(statement);
+        }
+    }
+
+    /*
+        Writes a version 2 database with one location and its weather to the location of the
+        weather database.
+     */
+    private void writeVersion2Database(int version) {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME), null);
+        createVersion2(db);
+        long locationRowId = db.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        // version 2 had no day, which the upgrade has to compute
+        weatherValues.remove(WeatherEntry.COLUMN_DAY);
+        db.insert(WeatherEntry.TABLE_NAME, null, weatherValues);
+        db.setVersion(version);
+        db.close();
+    }
+
+    private static List<String> getSchema(SQLiteDatabase db) {
+        List<String> schema = new ArrayList<String>();
+        Cursor cursor = db.rawQuery("SELECT type, name, tbl_name FROM sqlite_master " +
+                "WHERE name NOT LIKE 'sqlite_%' AND name != 'android_metadata' ORDER BY name", null);
+        while (cursor.moveToNext()) {
+            String name = cursor.getString(1);
+            schema.add(cursor.getString(0) + " " + name + " on " + cursor.getString(2));
+            if ("table".equals(cursor.getString(0))) {
+                Cursor columns = db.rawQuery("PRAGMA table_info(" + name + ")", null);
+                while (columns.moveToNext()) {
+                    // name, type, not null and primary key
+                    schema.add("  " + columns.getString(1) + " " + columns.getString(2) +
+                            " " + columns.getInt(3) + " " + columns.getInt(5));
+                }
+                columns.close();
+            }
+        }
+        cursor.close();
+        return schema;
+    }
+
+    private static boolean hasIndex(SQLiteDatabase db, String indexName) {
+        return DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND name = ?",
+                new String[]{indexName}) == 1;
+    }
+
+    public void testMigrateTo3() {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        createVersion2(db);
+        WeatherDbMigrations.migrateTo3(db);
+        assertTrue("Error: Index of the weather by location not created",
+                hasIndex(db, "weather_location_date"));
+        db.close();
+    }
+
+    public void testMigrateTo4() {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        createVersion2(db);
+        WeatherDbMigrations.migrateTo3(db);
+        WeatherDbMigrations.migrateTo4(db);
+        assertEquals("Error: History table not created", 0,
+                DatabaseUtils.queryNumEntries(db, WeatherContract.HistoryEntry.TABLE_NAME));
+        db.close();
+    }
+
+    public void testMigrateTo5() {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        createVersion2(db);
+        long locationRowId = db.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        weatherValues.remove(WeatherEntry.COLUMN_DAY);
+        weatherValues.put(WeatherEntry.COLUMN_DATE,
+                WeatherContract.normalizeDate(TestUtilities.TEST_DATE));
+        db.insert(WeatherEntry.TABLE_NAME, null, weatherValues);
+        WeatherDbMigrations.migrateTo3(db);
+        WeatherDbMigrations.migrateTo4(db);
+        WeatherDbMigrations.migrateTo5(db);
+
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertTrue("Error: Weather lost by the migration", cursor.moveToFirst());
+        TestUtilities.validateCurrentRecord("Error: Weather changed by the migration",
+                cursor, weatherValues);
+        assertEquals("Error: Day of the weather computed differently",
+                WeatherContract.getDay(TestUtilities.TEST_DATE),
+                cursor.getInt(cursor.getColumnIndex(WeatherEntry.COLUMN_DAY)));
+        cursor.close();
+        assertFalse("Error: Index of the weather by location and date kept",
+                hasIndex(db, "weather_location_date"));
+        assertTrue("Error: Index of the weather by location and day not created",
+                hasIndex(db, "weather_location_day"));
+        db.close();
+    }
+
+    public void testUpgradeKeepsData() {
+        writeVersion2Database(2);
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertTrue("Error: Location lost by the upgrade", cursor.moveToFirst());
+        TestUtilities.validateCurrentRecord("Error: Location changed by the upgrade",
+                cursor, TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = cursor.getLong(cursor.getColumnIndex(LocationEntry._ID));
+        cursor.close();
+
+        cursor = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertTrue("Error: Weather lost by the upgrade", cursor.moveToFirst());
+        TestUtilities.validateCurrentRecord("Error: Weather changed by the upgrade",
+                cursor, TestUtilities.createWeatherValues(locationRowId));
+        cursor.close();
+        db.close();
+    }
+
+    public void testUpgradeMatchesNewSchema() {
+        writeVersion2Database(2);
+        SQLiteDatabase upgraded = new WeatherDbHelper(mContext).getReadableDatabase();
+
+        SQLiteDatabase created = SQLiteDatabase.create(null);
+        new WeatherDbHelper(mContext).onCreate(created);
+
+        assertEquals("Error: Upgraded schema differs from a new one",
+                getSchema(created), getSchema(upgraded));
+        created.close();
+        upgraded.close();
+    }
+
+    public void testUpgradeFromUnknownVersion() {
+        writeVersion2Database(WeatherDbMigrations.FIRST_MIGRATABLE_VERSION - 1);
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        assertEquals("Error: Data of a version without migrations kept",
+                0, DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME));
+        db.close();
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+/*
+    Rolling up the history has to keep it bounded without losing any of the days it sums up.
+ */
+public class TestHistoryCompaction extends AndroidTestCase {
+
+    private SQLiteDatabase mDb;
+    private long mLocationRowId;
+    private long mNow;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+        mLocationRowId = mDb.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        mNow = System.currentTimeMillis();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private void insertDay(int daysAgo, double maxTemp) {
+        ContentValues values = new ContentValues();
+        values.put(HistoryEntry.COLUMN_LOC_KEY, mLocationRowId);
+        values.put(HistoryEntry.COLUMN_DATE,
+                WeatherContract.normalizeDate(mNow - daysAgo * DateUtils.DAY_IN_MILLIS));
+        values.put(HistoryEntry.COLUMN_PERIOD, HistoryEntry.PERIOD_DAY);
+        values.put(HistoryEntry.COLUMN_DAY_COUNT, 1);
+        values.put(HistoryEntry.COLUMN_WEATHER_ID, 321);
+        values.put(HistoryEntry.COLUMN_MIN_TEMP, 65);
+        values.put(HistoryEntry.COLUMN_MAX_TEMP, maxTemp);
+        values.put(HistoryEntry.COLUMN_AVG_MIN_TEMP, 65);
+        values.put(HistoryEntry.COLUMN_AVG_MAX_TEMP, maxTemp);
+        values.put(HistoryEntry.COLUMN_HUMIDITY, 1.2);
+        values.put(HistoryEntry.COLUMN_PRESSURE, 1.3);
+        values.put(HistoryEntry.COLUMN_WIND_SPEED, 5.5);
+        assertTrue(mDb.insert(HistoryEntry.TABLE_NAME, null, values) != -1);
+    }
+
+    private long countRows(int period) {
+        return DatabaseUtils.queryNumEntries(mDb, HistoryEntry.TABLE_NAME,
+                HistoryEntry.COLUMN_PERIOD + " = ?", new String[]{Integer.toString(period)});
+    }
+
+    private long sumDays() {
+        return DatabaseUtils.longForQuery(mDb, "SELECT SUM(" + HistoryEntry.COLUMN_DAY_COUNT +
+                ") FROM " + HistoryEntry.TABLE_NAME, null);
+    }
+
+    public void testRollUpDays() {
+        // 1 to 90 days ago, 1 degree warmer every day
+        for (int daysAgo = 1; daysAgo <= 90; daysAgo++) {
+            insertDay(daysAgo, daysAgo);
+        }
+        assertTrue("Error: Nothing rolled up", HistoryCompaction.compact(mDb, mNow) > 0);
+
+        assertTrue("Error: Recent days rolled up", countRows(HistoryEntry.PERIOD_DAY) >= 31);
+        assertTrue("Error: Days kept past their week",
+                countRows(HistoryEntry.PERIOD_DAY) <= 31 + 7);
+        assertTrue("Error: No weeks rolled up", countRows(HistoryEntry.PERIOD_WEEK) > 0);
+        assertEquals("Error: Days lost by the roll up", 90, sumDays());
+
+        Cursor cursor = mDb.rawQuery("SELECT MAX(" + HistoryEntry.COLUMN_MAX_TEMP + "), SUM(" +
+                HistoryEntry.COLUMN_AVG_MAX_TEMP + " * " + HistoryEntry.COLUMN_DAY_COUNT +
+                ") FROM " + HistoryEntry.TABLE_NAME, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: Highest temperature lost by the roll up", 90.0, cursor.getDouble(0));
+        assertEquals("Error: Average temperatures changed by the roll up",
+                90 * 91 / 2.0, cursor.getDouble(1), 0.001);
+        cursor.close();
+
+        // Everything aged out has been rolled up already
+        assertEquals("Error: History rolled up twice", 0, HistoryCompaction.compact(mDb, mNow));
+    }
+
+    public void testRollUpLateDay() {
+        for (int daysAgo = 60; daysAgo <= 90; daysAgo++) {
+            insertDay(daysAgo, 75);
+        }
+        HistoryCompaction.compact(mDb, mNow);
+        long weekCount = countRows(HistoryEntry.PERIOD_WEEK);
+
+        // A day archived after its week has been rolled up
+        insertDay(59, 75);
+        HistoryCompaction.compact(mDb, mNow);
+        assertEquals("Error: Late day not rolled up", 0, countRows(HistoryEntry.PERIOD_DAY));
+        assertTrue("Error: Week of the late day rolled up twice",
+                countRows(HistoryEntry.PERIOD_WEEK) <= weekCount + 1);
+        assertEquals("Error: Late day lost by the roll up", 32, sumDays());
+    }
+
+    public void testDropOldHistory() {
+        for (int daysAgo = 800; daysAgo <= 900; daysAgo++) {
+            insertDay(daysAgo, 75);
+        }
+        insertDay(300, 75);
+        HistoryCompaction.compact(mDb, mNow);
+
+        assertEquals("Error: History older than two years kept", 1, sumDays());
+        assertEquals("Error: Old weeks not rolled up into months",
+                1, countRows(HistoryEntry.PERIOD_MONTH));
+    }
+}
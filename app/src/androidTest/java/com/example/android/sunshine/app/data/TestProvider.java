@@ -16,20 +16,35 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
 import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
 import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -61,6 +76,11 @@ public class TestProvider extends AndroidTestCase {
                 null,
                 null
         );
+        mContext.getContentResolver().delete(
+                HistoryEntry.CONTENT_URI,
+                null,
+                null
+        );
 
         Cursor cursor = mContext.getContentResolver().query(
                 WeatherEntry.CONTENT_URI,
@@ -512,4 +532,356 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        This test stores a location and its weather with a single applyBatch call, the way the
+        sync adapter does, and checks that the weather rows refer to the inserted location.
+     */
+    public void testApplyBatch() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        for (ContentValues weatherValues : createBulkInsertWeatherValues(0)) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(weatherValues)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+
+        // Register a content observer for the batch.
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        ContentProviderResult[] results = mContext.getContentResolver()
+                .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT + 1, results.length);
+        long locationRowId = ContentUris.parseId(results[0].uri);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, // leaving "columns" null just returns all the columns.
+                null, // cols for "where" clause
+                null, // values for "where" clause
+                null  // sort order
+        );
+        assertEquals("Error: Weather rows of the batch not stored for the inserted location",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(locationRowId, cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_LOC_KEY)));
+        cursor.close();
+    }
+
+    // Make sure the cached location ids follow the changes made through the provider
+    public void testLocationIdCache() {
+        assertEquals("Error: Deleted location still cached",
+                -1, LocationIdCache.getLocationId(mContext.getContentResolver(), TestUtilities.TEST_LOCATION));
+
+        Uri locationUri = mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+        assertEquals("Error: Inserted location not found in the cache",
+                locationRowId, LocationIdCache.getLocationId(mContext.getContentResolver(), TestUtilities.TEST_LOCATION));
+
+        ContentValues updatedValues = new ContentValues();
+        updatedValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "99706");
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, updatedValues,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(locationRowId)});
+        assertEquals("Error: Renamed location still cached under its old setting",
+                -1, LocationIdCache.getLocationId(mContext.getContentResolver(), TestUtilities.TEST_LOCATION));
+        assertEquals("Error: Renamed location not found in the cache",
+                locationRowId, LocationIdCache.getLocationId(mContext.getContentResolver(), "99706"));
+
+        deleteAllRecordsFromProvider();
+        assertEquals("Error: Deleted location still cached",
+                -1, LocationIdCache.getLocationId(mContext.getContentResolver(), "99706"));
+    }
+
+    // Make sure repeated forecast reads are served from the cache, and that no change made
+    // through the provider is hidden by it
+    public void testForecastCache() {
+        Uri locationUri = mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        Uri dayUri = WeatherEntry.buildWeatherLocationWithDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        String[] projection = new String[]{WeatherEntry.COLUMN_MAX_TEMP};
+        int hitCount = getForecastCacheHitCount();
+        for (int i = 0; i < 2; i++) {
+            Cursor cursor = mContext.getContentResolver().query(dayUri, projection, null, null, null);
+            assertTrue("Error: Day not found", cursor.moveToFirst());
+            assertEquals(75.0, cursor.getDouble(0));
+            cursor.close();
+        }
+        // Results aren't copied before Honeycomb, see QueryResultCache
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            assertEquals("Error: Repeated read not served from the cache",
+                    hitCount + 1, getForecastCacheHitCount());
+        }
+
+        ContentValues updatedValues = new ContentValues();
+        updatedValues.put(WeatherEntry.COLUMN_MAX_TEMP, 80);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, updatedValues,
+                WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(WeatherContract.normalizeDate(TestUtilities.TEST_DATE))});
+
+        Cursor cursor = mContext.getContentResolver().query(dayUri, projection, null, null, null);
+        assertTrue("Error: Day not found", cursor.moveToFirst());
+        assertEquals("Error: Updated day hidden by the cache", 80.0, cursor.getDouble(0));
+        cursor.close();
+
+        deleteAllRecordsFromProvider();
+        cursor = mContext.getContentResolver().query(dayUri, projection, null, null, null);
+        assertEquals("Error: Deleted day served from the cache", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    // Make sure a change of one location, or of the history, leaves the cached forecasts of the
+    // other locations alone
+    public void testForecastCacheKeepsOtherLocations() {
+        // Results aren't copied before Honeycomb, see QueryResultCache
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        Uri locationUri = mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        ContentValues otherLocationValues = TestUtilities.createNorthPoleLocationValues();
+        otherLocationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "99706");
+        locationUri = mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, otherLocationValues);
+        long otherLocationRowId = ContentUris.parseId(locationUri);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(otherLocationRowId));
+
+        Uri otherDayUri = WeatherEntry.buildWeatherLocationWithDate("99706", TestUtilities.TEST_DATE);
+        String[] projection = new String[]{WeatherEntry.COLUMN_MAX_TEMP};
+        Cursor cursor = mContext.getContentResolver().query(
+                otherDayUri, projection, null, null, null);
+        cursor.close();
+
+        ContentValues updatedValues = new ContentValues();
+        updatedValues.put(WeatherEntry.COLUMN_MAX_TEMP, 80);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, updatedValues,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(locationRowId),
+                        Long.toString(WeatherContract.normalizeDate(TestUtilities.TEST_DATE))});
+        int hitCount = getForecastCacheHitCount();
+        cursor = mContext.getContentResolver().query(otherDayUri, projection, null, null, null);
+        assertTrue("Error: Day not found", cursor.moveToFirst());
+        assertEquals(75.0, cursor.getDouble(0));
+        cursor.close();
+        assertEquals("Error: Forecast dropped from the cache by a change of another location",
+                hitCount + 1, getForecastCacheHitCount());
+
+        mContext.getContentResolver().insert(HistoryEntry.CONTENT_URI,
+                TestUtilities.createHistoryValues(otherLocationRowId));
+        cursor = mContext.getContentResolver().query(otherDayUri, projection, null, null, null);
+        cursor.close();
+        assertEquals("Error: Forecast dropped from the cache by a change of the history",
+                hitCount + 2, getForecastCacheHitCount());
+    }
+
+    // Reads the hits of the forecast cache from the dump of the provider
+    private int getForecastCacheHitCount() {
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        try {
+            StringWriter out = new StringWriter();
+            PrintWriter writer = new PrintWriter(out);
+            client.getLocalContentProvider().dump(null, writer, null);
+            writer.flush();
+            Matcher matcher = Pattern.compile("Forecast cache: (\\d+) hits")
+                    .matcher(out.toString());
+            assertTrue("Error: Forecast cache not dumped:\n" + out, matcher.find());
+            return Integer.parseInt(matcher.group(1));
+        } finally {
+            client.release();
+        }
+    }
+
+    // Make sure changes are notified on the days and locations they touched, once for each
+    public void testChangeNotifications() {
+        Uri dayUri = WeatherEntry.buildWeatherLocationWithDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        Uri nextDayUri = WeatherEntry.buildWeatherLocationWithDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE + DateUtils.DAY_IN_MILLIS);
+        Uri otherDayUri = WeatherEntry.buildWeatherLocationWithDate("99706", TestUtilities.TEST_DATE);
+
+        Set<Uri> notified = WeatherProvider.coalesceChanges(Arrays.asList(dayUri, dayUri, otherDayUri));
+        assertEquals("Error: Change of a single day not notified on the day",
+                new HashSet<Uri>(Arrays.asList(dayUri, otherDayUri)), notified);
+        notified = WeatherProvider.coalesceChanges(Arrays.asList(dayUri, nextDayUri, otherDayUri));
+        assertEquals("Error: Change of several days not notified on the location",
+                new HashSet<Uri>(Arrays.asList(
+                        WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), otherDayUri)),
+                notified);
+        notified = WeatherProvider.coalesceChanges(Arrays.asList(
+                dayUri, WeatherEntry.CONTENT_URI, LocationEntry.CONTENT_URI));
+        assertEquals("Error: Days notified along with all weather",
+                new HashSet<Uri>(Arrays.asList(WeatherEntry.CONTENT_URI, LocationEntry.CONTENT_URI)),
+                notified);
+
+        Uri locationUri = mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        // An observer of the day, like the detail pane, has to be told about its update
+        TestUtilities.TestContentObserver dayObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(dayUri, true, dayObserver);
+        // while the forecast of another location, like a widget of it, must not be woken up,
+        // as it would be by a change notified on all weather
+        TestUtilities.TestContentObserver otherLocationObserver =
+                TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation("99706"), true, otherLocationObserver);
+
+        ContentValues updatedValues = new ContentValues();
+        updatedValues.put(WeatherEntry.COLUMN_MAX_TEMP, 80);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, updatedValues,
+                WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(WeatherContract.normalizeDate(TestUtilities.TEST_DATE))});
+
+        dayObserver.waitForNotificationOrFail();
+        otherLocationObserver.assertNoNotification();
+        mContext.getContentResolver().unregisterContentObserver(dayObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherLocationObserver);
+    }
+
+    // Make sure the statistics are computed over the requested days only
+    public void testWeatherStats() {
+        Uri locationUri = mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+        ContentValues[] bulkValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkValues);
+
+        // The days 2 to 5 of the bulk insert
+        Uri statsUri = WeatherEntry.buildWeatherStats(TestUtilities.TEST_LOCATION,
+                bulkValues[2].getAsLong(WeatherEntry.COLUMN_DATE),
+                bulkValues[5].getAsLong(WeatherEntry.COLUMN_DATE));
+        assertEquals(WeatherEntry.CONTENT_ITEM_TYPE, mContext.getContentResolver().getType(statsUri));
+
+        Cursor cursor = mContext.getContentResolver().query(statsUri, null, null, null, null);
+        assertEquals("Error: Statistics not returned as a single row", 1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(4, cursor.getInt(cursor.getColumnIndex(WeatherEntry.STATS_DAY_COUNT)));
+        assertEquals(60.0, cursor.getDouble(cursor.getColumnIndex(WeatherEntry.STATS_LOWEST_MIN_TEMP)));
+        assertEquals(80.0, cursor.getDouble(cursor.getColumnIndex(WeatherEntry.STATS_HIGHEST_MAX_TEMP)));
+        assertEquals(78.5, cursor.getDouble(cursor.getColumnIndex(WeatherEntry.STATS_AVG_MAX_TEMP)), 0.001);
+        assertEquals(5.5 + 0.2 * 3.5,
+                cursor.getDouble(cursor.getColumnIndex(WeatherEntry.STATS_AVG_WIND_SPEED)), 0.001);
+        cursor.close();
+
+        // Only the requested columns
+        cursor = mContext.getContentResolver().query(statsUri,
+                new String[]{WeatherEntry.STATS_AVG_MIN_TEMP}, null, null, null);
+        assertEquals(1, cursor.getColumnCount());
+        cursor.moveToFirst();
+        assertEquals(61.5, cursor.getDouble(0), 0.001);
+        cursor.close();
+    }
+
+    // Make sure the days of a location can be read page by page
+    public void testPaging() {
+        Uri locationUri = mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        String[] projection = new String[]{WeatherEntry.COLUMN_DATE};
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(
+                        TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE, 4),
+                projection, null, null, null);
+        int pages = 0;
+        int days = 0;
+        long lastDate = 0;
+        while (cursor.getCount() > 0) {
+            assertTrue("Error: Page exceeds its limit", cursor.getCount() <= 4);
+            while (cursor.moveToNext()) {
+                assertTrue("Error: Days out of order or repeated", cursor.getLong(0) > lastDate);
+                lastDate = cursor.getLong(0);
+                days++;
+            }
+            cursor.close();
+            pages++;
+            cursor = mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocationAfterDate(TestUtilities.TEST_LOCATION, lastDate, 4),
+                    projection, null, null, null);
+        }
+        cursor.close();
+
+        assertEquals("Error: Days lost by the paging", BULK_INSERT_RECORDS_TO_INSERT, days);
+        assertEquals(3, pages);
+    }
+
+    private long[] queryWeatherIds() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return ids;
+    }
+
+    private long getWeatherSequence() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        long sequence = DatabaseUtils.longForQuery(db,
+                "SELECT seq FROM sqlite_sequence WHERE name = ?",
+                new String[]{WeatherEntry.TABLE_NAME});
+        db.close();
+        return sequence;
+    }
+
+    // Make sure days written again are updated in place, keeping their ids
+    public void testUpsertKeepsIds() {
+        Uri locationUri = mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        long[] ids = queryWeatherIds();
+        long sequence = getWeatherSequence();
+
+        ContentValues[] bulkValues = createBulkInsertWeatherValues(locationRowId);
+        bulkValues[0].put(WeatherEntry.COLUMN_MAX_TEMP, 90);
+        assertEquals("Error: Days written again not counted", BULK_INSERT_RECORDS_TO_INSERT,
+                mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkValues));
+
+        ContentValues dayValues = createBulkInsertWeatherValues(locationRowId)[1];
+        dayValues.put(WeatherEntry.COLUMN_MAX_TEMP, 91);
+        Uri dayRowUri = mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, dayValues);
+        assertEquals("Error: Id of the existing day not returned",
+                ids[1], ContentUris.parseId(dayRowUri));
+
+        assertTrue("Error: Days written again got new ids",
+                Arrays.equals(ids, queryWeatherIds()));
+        assertEquals("Error: Days written again used up ids", sequence, getWeatherSequence());
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_MAX_TEMP}, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: Changed day not updated", 90.0, cursor.getDouble(0));
+        assertTrue(cursor.moveToNext());
+        assertEquals("Error: Changed day not updated", 91.0, cursor.getDouble(0));
+        assertTrue(cursor.moveToNext());
+        assertEquals("Error: Unchanged day changed", 77.0, cursor.getDouble(0));
+        cursor.close();
+    }
 }
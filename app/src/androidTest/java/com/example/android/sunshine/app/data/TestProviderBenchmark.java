@@ -0,0 +1,521 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Times the hot paths of the provider.  The numbers depend on the device, so they are only
+    logged; check the log for them.  Not part of the FullTestSuite, run them through the
+    BenchmarkSuite.
+
+    The write paths are compared on a single location.  The scaling benchmarks go from one
+    location up to hundreds of locations with a full history each: bulkInsert of the forecasts,
+    the queries of each URI shape with and without the cached results, and the delivery of
+    change notifications to an observer per location.  Their results are also appended to
+    provider_benchmark.csv in the files directory of the app, one line per measurement, so runs
+    can be compared with
+    adb shell run-as com.example.android.sunshine.app cat files/provider_benchmark.csv
+ */
+public class TestProviderBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestProviderBenchmark.class.getSimpleName();
+
+    static final int ROW_COUNT = 2000;
+
+    static final String RESULTS_FILE_NAME = "provider_benchmark.csv";
+    static final String RESULTS_HEADER =
+            "run,locations,rows,metric,count,items,median_us,p90_us,items_per_s";
+
+    static final int DAY_COUNT = 14;
+    static final int QUERY_COUNT = 100;
+    static final int NOTIFY_COUNT = 20;
+
+    // The history of a location once it has been compacted, see HistoryCompaction
+    static final int HISTORY_DAY_COUNT = 31;
+    static final int HISTORY_WEEK_COUNT = 26;
+    static final int HISTORY_MONTH_COUNT = 18;
+
+    // All tests of a run share it, so their lines can be told apart from older runs
+    private static final long RUN_STARTED_AT = System.currentTimeMillis();
+
+    private long mLocationRowId;
+
+    private final List<String> mResults = new ArrayList<String>();
+    private long mToday;
+    private String[] mLocationSettings;
+    private long[] mLocationIds;
+    private int mRowCount;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        Uri locationUri = mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues());
+        mLocationRowId = ContentUris.parseId(locationUri);
+        mToday = WeatherContract.normalizeDate(System.currentTimeMillis());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HistoryEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    ContentValues[] createWeatherRows(long locationRowId, int count) {
+        ContentValues[] rows = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            rows[i] = TestUtilities.createWeatherValues(locationRowId);
+            long date = TestUtilities.TEST_DATE + i * 1000L * 60 * 60 * 24;
+            rows[i].put(WeatherEntry.COLUMN_DATE, date);
+            rows[i].put(WeatherEntry.COLUMN_DAY, WeatherContract.getDay(date));
+            rows[i].put(WeatherEntry.COLUMN_MAX_TEMP, 75 + i % 10);
+        }
+        return rows;
+    }
+
+    static void logRate(String name, int count, long nanos) {
+        Log.d(LOG_TAG, String.format("%s: %d in %.1fms, %.0f/s",
+                name, count, nanos / 1000000.0, count * 1000000000.0 / Math.max(nanos, 1)));
+    }
+
+    /*
+        Compares bulkInsert, which binds the rows to one compiled statement, with building an
+        insert from ContentValues for each row in the same kind of transaction.
+     */
+    public void testBulkInsertThroughput() {
+        ContentValues[] rows = createWeatherRows(mLocationRowId, ROW_COUNT);
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        long start = System.nanoTime();
+        db.beginTransaction();
+        try {
+            for (ContentValues row : rows) {
+                db.insert(WeatherEntry.TABLE_NAME, null, row);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        logRate("Insert per row", ROW_COUNT, System.nanoTime() - start);
+        db.close();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+
+        rows = createWeatherRows(mLocationRowId, ROW_COUNT);
+        start = System.nanoTime();
+        int inserted = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, rows);
+        logRate("bulkInsert", ROW_COUNT, System.nanoTime() - start);
+        assertEquals("Error: Not all rows inserted", ROW_COUNT, inserted);
+    }
+
+    /*
+        The sync stores its days through applyBatch, one insert operation per day.  They share
+        the compiled statements of the batch, so they should come close to bulkInsert, for new
+        days as well as for changed ones.
+     */
+    public void testApplyBatchThroughput() throws Exception {
+        ContentValues[] rows = createWeatherRows(mLocationRowId, ROW_COUNT);
+        long start = System.nanoTime();
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, buildInsertOperations(rows));
+        logRate("applyBatch new days", ROW_COUNT, System.nanoTime() - start);
+        assertEquals("Error: Not all rows inserted", ROW_COUNT, results.length);
+
+        rows = createWeatherRows(mLocationRowId, ROW_COUNT);
+        for (ContentValues row : rows) {
+            row.put(WeatherEntry.COLUMN_MIN_TEMP, 0);
+        }
+        start = System.nanoTime();
+        mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, buildInsertOperations(rows));
+        logRate("applyBatch changed days", ROW_COUNT, System.nanoTime() - start);
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                WeatherEntry.COLUMN_MIN_TEMP + " = 0", null, null);
+        assertEquals("Error: Not all rows updated", ROW_COUNT, cursor.getCount());
+        cursor.close();
+    }
+
+    private static ArrayList<ContentProviderOperation> buildInsertOperations(ContentValues[] rows) {
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>(rows.length);
+        for (ContentValues row : rows) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(row)
+                    .build());
+        }
+        return operations;
+    }
+
+    public void testOneLocation() throws Exception {
+        runBenchmarks(1);
+    }
+
+    public void testTenLocations() throws Exception {
+        runBenchmarks(10);
+    }
+
+    public void testHundredLocations() throws Exception {
+        runBenchmarks(100);
+    }
+
+    public void testThreeHundredLocations() throws Exception {
+        runBenchmarks(300);
+    }
+
+    private void runBenchmarks(int locationCount) throws Exception {
+        deleteAllRecords();
+        insertLocations(locationCount);
+        insertHistory();
+
+        benchmarkBulkInsert();
+        for (QueryShape shape : createQueryShapes()) {
+            benchmarkQueries(shape);
+        }
+        benchmarkNotifications();
+
+        writeResults();
+    }
+
+    private void insertLocations(int count) {
+        mLocationSettings = new String[count];
+        mLocationIds = new long[count];
+        for (int i = 0; i < count; i++) {
+            mLocationSettings[i] = "benchmark-" + i;
+            ContentValues values = TestUtilities.createNorthPoleLocationValues();
+            values.put(LocationEntry.COLUMN_LOCATION_SETTING, mLocationSettings[i]);
+            values.put(LocationEntry.COLUMN_CITY_NAME, "Benchmark " + i);
+            mLocationIds[i] = ContentUris.parseId(mContext.getContentResolver().insert(
+                    LocationEntry.CONTENT_URI, values));
+        }
+    }
+
+    /*
+        Written to the database directly, the history is only the background of the benchmarks.
+     */
+    private void insertHistory() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (long locationId : mLocationIds) {
+                long date = mToday;
+                for (int i = 0; i < HISTORY_DAY_COUNT; i++) {
+                    date -= DateUtils.DAY_IN_MILLIS;
+                    insertHistoryRow(db, locationId, date, HistoryEntry.PERIOD_DAY, 1);
+                }
+                for (int i = 0; i < HISTORY_WEEK_COUNT; i++) {
+                    date -= DateUtils.WEEK_IN_MILLIS;
+                    insertHistoryRow(db, locationId, date, HistoryEntry.PERIOD_WEEK, 7);
+                }
+                for (int i = 0; i < HISTORY_MONTH_COUNT; i++) {
+                    date -= 30 * DateUtils.DAY_IN_MILLIS;
+                    insertHistoryRow(db, locationId, date, HistoryEntry.PERIOD_MONTH, 30);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+        mRowCount = mLocationIds.length *
+                (HISTORY_DAY_COUNT + HISTORY_WEEK_COUNT + HISTORY_MONTH_COUNT + DAY_COUNT);
+    }
+
+    private static void insertHistoryRow(SQLiteDatabase db, long locationId, long date,
+                                         int period, int dayCount) {
+        ContentValues values = new ContentValues();
+        values.put(HistoryEntry.COLUMN_LOC_KEY, locationId);
+        values.put(HistoryEntry.COLUMN_DATE, WeatherContract.normalizeDate(date));
+        values.put(HistoryEntry.COLUMN_PERIOD, period);
+        values.put(HistoryEntry.COLUMN_DAY_COUNT, dayCount);
+        values.put(HistoryEntry.COLUMN_WEATHER_ID, 321);
+        values.put(HistoryEntry.COLUMN_MIN_TEMP, 65);
+        values.put(HistoryEntry.COLUMN_MAX_TEMP, 75);
+        values.put(HistoryEntry.COLUMN_AVG_MIN_TEMP, 65);
+        values.put(HistoryEntry.COLUMN_AVG_MAX_TEMP, 75);
+        values.put(HistoryEntry.COLUMN_HUMIDITY, 1.2);
+        values.put(HistoryEntry.COLUMN_PRESSURE, 1.3);
+        values.put(HistoryEntry.COLUMN_WIND_SPEED, 5.5);
+        assertTrue(db.insert(HistoryEntry.TABLE_NAME, null, values) != -1);
+    }
+
+    private ContentValues[] createForecast(long locationId, double maxTemp) {
+        ContentValues[] rows = new ContentValues[DAY_COUNT];
+        for (int i = 0; i < DAY_COUNT; i++) {
+            rows[i] = TestUtilities.createWeatherValues(locationId);
+            long date = mToday + i * DateUtils.DAY_IN_MILLIS;
+            rows[i].put(WeatherEntry.COLUMN_DATE, date);
+            rows[i].put(WeatherEntry.COLUMN_DAY, WeatherContract.getDay(date));
+            rows[i].put(WeatherEntry.COLUMN_MAX_TEMP, maxTemp);
+        }
+        return rows;
+    }
+
+    /*
+        One bulkInsert for each location, as a sync writes them: first new days, then the same
+        days again with a changed forecast.
+     */
+    private void benchmarkBulkInsert() {
+        for (int pass = 0; pass < 2; pass++) {
+            long[] nanos = new long[mLocationIds.length];
+            for (int i = 0; i < mLocationIds.length; i++) {
+                ContentValues[] rows = createForecast(mLocationIds[i], 75 + pass);
+                long start = System.nanoTime();
+                int inserted = mContext.getContentResolver().bulkInsert(
+                        WeatherEntry.CONTENT_URI, rows);
+                nanos[i] = System.nanoTime() - start;
+                assertEquals("Error: Not all days inserted", DAY_COUNT, inserted);
+            }
+            record(pass == 0 ? "bulkInsert new days" : "bulkInsert existing days",
+                    nanos, DAY_COUNT);
+        }
+    }
+
+    abstract static class QueryShape {
+        final String mName;
+        // false if the provider never caches the results of the shape
+        final boolean mCached;
+
+        QueryShape(String name, boolean cached) {
+            mName = name;
+            mCached = cached;
+        }
+
+        abstract Uri buildUri(String locationSetting);
+    }
+
+    private List<QueryShape> createQueryShapes() {
+        final long middleDate = mToday + DAY_COUNT / 2 * DateUtils.DAY_IN_MILLIS;
+        final long lastDate = mToday + (DAY_COUNT - 1) * DateUtils.DAY_IN_MILLIS;
+        return Arrays.asList(
+                new QueryShape("weather/*/#", true) {
+                    @Override
+                    Uri buildUri(String locationSetting) {
+                        return WeatherEntry.buildWeatherLocationWithDate(
+                                locationSetting, middleDate);
+                    }
+                },
+                new QueryShape("weather/*?date", true) {
+                    @Override
+                    Uri buildUri(String locationSetting) {
+                        return WeatherEntry.buildWeatherLocationWithStartDate(
+                                locationSetting, mToday);
+                    }
+                },
+                new QueryShape("weather/*?after&limit", true) {
+                    @Override
+                    Uri buildUri(String locationSetting) {
+                        return WeatherEntry.buildWeatherLocationAfterDate(
+                                locationSetting, mToday, 7);
+                    }
+                },
+                new QueryShape("weather/*/stats", true) {
+                    @Override
+                    Uri buildUri(String locationSetting) {
+                        return WeatherEntry.buildWeatherStats(locationSetting, mToday, lastDate);
+                    }
+                },
+                new QueryShape("history/*", false) {
+                    @Override
+                    Uri buildUri(String locationSetting) {
+                        return HistoryEntry.buildHistoryLocation(locationSetting);
+                    }
+                });
+    }
+
+    private void query(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        assertNotNull("Error: No cursor for " + uri, cursor);
+        assertTrue("Error: Nothing found for " + uri, cursor.getCount() > 0);
+        cursor.close();
+    }
+
+    /*
+        A change of a location drops the cached results of all of them, the smallest one sets
+        the name of the first location to what it already is.
+     */
+    private void dropCachedResults() {
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_CITY_NAME, "Benchmark 0");
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, values,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(mLocationIds[0])});
+    }
+
+    /*
+        Uncached, the queries go round all locations right after a change, which is what the
+        screens and widgets do after a sync.  Cached, the same query is repeated.
+     */
+    private void benchmarkQueries(QueryShape shape) {
+        long[] nanos = new long[QUERY_COUNT];
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            dropCachedResults();
+            Uri uri = shape.buildUri(mLocationSettings[i % mLocationSettings.length]);
+            long start = System.nanoTime();
+            query(uri);
+            nanos[i] = System.nanoTime() - start;
+        }
+        record(shape.mName + (shape.mCached ? " uncached" : ""), nanos, 1);
+
+        if (shape.mCached) {
+            Uri uri = shape.buildUri(mLocationSettings[0]);
+            query(uri);
+            for (int i = 0; i < QUERY_COUNT; i++) {
+                long start = System.nanoTime();
+                query(uri);
+                nanos[i] = System.nanoTime() - start;
+            }
+            record(shape.mName + " cached", nanos, 1);
+        }
+    }
+
+    /*
+        Every location is watched, like by a detail screen or a widget.  The time is taken from
+        the start of the update until the last observer has been called.
+     */
+    private void benchmarkNotifications() throws InterruptedException {
+        HandlerThread thread = new HandlerThread("BenchmarkObserverThread");
+        thread.start();
+        Handler handler = new Handler(thread.getLooper());
+        final CountDownLatch[] latch = new CountDownLatch[1];
+        List<ContentObserver> observers = new ArrayList<ContentObserver>();
+        try {
+            for (String locationSetting : mLocationSettings) {
+                ContentObserver observer = new ContentObserver(handler) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        synchronized (latch) {
+                            latch[0].countDown();
+                        }
+                    }
+                };
+                mContext.getContentResolver().registerContentObserver(
+                        WeatherEntry.buildWeatherLocation(locationSetting), true, observer);
+                observers.add(observer);
+            }
+
+            long[] nanos = new long[NOTIFY_COUNT];
+            for (int i = 0; i < NOTIFY_COUNT; i++) {
+                int location = i % mLocationIds.length;
+                ContentValues values = new ContentValues();
+                values.put(WeatherEntry.COLUMN_MAX_TEMP, 80 + i);
+                synchronized (latch) {
+                    latch[0] = new CountDownLatch(1);
+                }
+                long start = System.nanoTime();
+                mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, values,
+                        WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DAY + " = ?",
+                        new String[]{Long.toString(mLocationIds[location]),
+                                Integer.toString(WeatherContract.getDay(mToday))});
+                awaitObservers(latch);
+                nanos[i] = System.nanoTime() - start;
+            }
+            record("notify one location", nanos, 1);
+
+            for (int i = 0; i < NOTIFY_COUNT; i++) {
+                ContentValues values = new ContentValues();
+                values.put(WeatherEntry.COLUMN_MAX_TEMP, 80 + i);
+                synchronized (latch) {
+                    latch[0] = new CountDownLatch(mLocationIds.length);
+                }
+                long start = System.nanoTime();
+                mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, values, null, null);
+                awaitObservers(latch);
+                nanos[i] = System.nanoTime() - start;
+            }
+            record("notify all locations", nanos, mLocationIds.length);
+        } finally {
+            for (ContentObserver observer : observers) {
+                mContext.getContentResolver().unregisterContentObserver(observer);
+            }
+            thread.quit();
+        }
+    }
+
+    private static void awaitObservers(CountDownLatch[] latch) throws InterruptedException {
+        CountDownLatch current;
+        synchronized (latch) {
+            current = latch[0];
+        }
+        assertTrue("Error: Not all observers notified", current.await(10, TimeUnit.SECONDS));
+    }
+
+    /*
+        Logs a measurement and keeps it for the results file.
+
+        @param items the rows, queries or notified observers of each measured call
+     */
+    private void record(String metric, long[] nanos, int items) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long time : sorted) {
+            total += time;
+        }
+        long totalItems = (long) items * sorted.length;
+        double itemsPerSecond = totalItems * 1000000000.0 / Math.max(total, 1);
+        long median = sorted[sorted.length / 2] / 1000;
+        long p90 = sorted[sorted.length * 9 / 10] / 1000;
+
+        Log.d(LOG_TAG, String.format(Locale.US, "%d locations, %s: %d calls, median %dus, " +
+                        "p90 %dus, %.0f/s", mLocationIds.length, metric, sorted.length,
+                median, p90, itemsPerSecond));
+        mResults.add(String.format(Locale.US, "%d,%d,%d,%s,%d,%d,%d,%d,%.0f", RUN_STARTED_AT,
+                mLocationIds.length, mRowCount, metric, sorted.length, totalItems,
+                median, p90, itemsPerSecond));
+    }
+
+    private void writeResults() {
+        File file = new File(mContext.getFilesDir(), RESULTS_FILE_NAME);
+        boolean isNew = !file.exists();
+        PrintWriter writer = null;
+        try {
+            writer = new PrintWriter(new FileWriter(file, true));
+            if (isNew) {
+                writer.println(RESULTS_HEADER);
+            }
+            for (String line : mResults) {
+                writer.println(line);
+            }
+            assertFalse("Error: Results not written to " + file, writer.checkError());
+        } catch (IOException e) {
+            fail("Error: Results not written to " + file + ": " + e);
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+        Log.d(LOG_TAG, "Results appended to " + file);
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks the query plans of the queries the provider runs for each of its URIs, so a full
+    table scan can't slip in unnoticed.  The tables are searched by an index in all of them.
+ */
+public class TestQueryPlan extends AndroidTestCase {
+
+    private static final String DATE_ASC = WeatherEntry.COLUMN_DATE + " ASC";
+    private static final String TEST_DAY =
+            Integer.toString(WeatherContract.getDay(TestUtilities.TEST_DATE));
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDb = new WeatherDbHelper(mContext).getReadableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    /**
+     * @return the plan, one step per line
+     */
+    private String explain(String sql, String[] selectionArgs) {
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        StringBuilder plan = new StringBuilder();
+        int detailIndex = cursor.getColumnIndex("detail");
+        while (cursor.moveToNext()) {
+            plan.append(cursor.getString(detailIndex)).append('\n');
+        }
+        cursor.close();
+        return plan.toString();
+    }
+
+    private void assertNoScan(String name, String plan) {
+        for (String step : plan.split("\n")) {
+            // e.g. "SCAN TABLE weather", or "SCAN weather" on newer SQLite versions
+            assertFalse("Error: " + name + " scans a table:\n" + plan, step.startsWith("SCAN"));
+        }
+    }
+
+    private void assertUsesIndex(String name, String plan, String indexName) {
+        assertTrue("Error: " + name + " doesn't use " + indexName + ":\n" + plan,
+                plan.contains(indexName));
+    }
+
+    private void assertWeatherByLocation(String name, String selection, String[] selectionArgs) {
+        String plan = explain(
+                WeatherProvider.buildWeatherByLocationSql(null, selection, DATE_ASC),
+                selectionArgs);
+        assertNoScan(name, plan);
+    }
+
+    // weather/*
+    public void testWeatherWithLocation() {
+        assertWeatherByLocation("Weather by location setting",
+                WeatherProvider.sLocationSettingSelection,
+                new String[]{TestUtilities.TEST_LOCATION});
+        assertWeatherByLocation("Weather by location id",
+                WeatherProvider.sLocationIdSelection,
+                new String[]{"1"});
+    }
+
+    // weather/*?date=
+    public void testWeatherWithLocationAndStartDate() {
+        assertWeatherByLocation("Weather by location setting and start date",
+                WeatherProvider.sLocationSettingWithStartDateSelection,
+                new String[]{TestUtilities.TEST_LOCATION, TEST_DAY});
+        assertWeatherByLocation("Weather by location id and start date",
+                WeatherProvider.sLocationIdWithStartDateSelection,
+                new String[]{"1", TEST_DAY});
+    }
+
+    // weather/*/#
+    public void testWeatherWithLocationAndDate() {
+        assertWeatherByLocation("Weather by location setting and date",
+                WeatherProvider.sLocationSettingAndDaySelection,
+                new String[]{TestUtilities.TEST_LOCATION, TEST_DAY});
+        assertWeatherByLocation("Weather by location id and date",
+                WeatherProvider.sLocationIdAndDaySelection,
+                new String[]{"1", TEST_DAY});
+    }
+
+    // weather/*/stats
+    public void testWeatherStats() {
+        String[] projection = WeatherProvider.buildStatsProjection(null);
+        String plan = explain(WeatherProvider.buildWeatherByLocationSql(projection,
+                        WeatherProvider.sLocationSettingWithDateRangeSelection, null),
+                new String[]{TestUtilities.TEST_LOCATION, TEST_DAY, TEST_DAY});
+        assertNoScan("Statistics by location setting", plan);
+        assertUsesIndex("Statistics by location setting", plan,
+                WeatherDbHelper.WEATHER_LOCATION_INDEX_NAME);
+        plan = explain(WeatherProvider.buildWeatherByLocationSql(projection,
+                        WeatherProvider.sLocationIdWithDateRangeSelection, null),
+                new String[]{"1", TEST_DAY, TEST_DAY});
+        assertNoScan("Statistics by location id", plan);
+        assertUsesIndex("Statistics by location id", plan,
+                WeatherDbHelper.WEATHER_LOCATION_INDEX_NAME);
+    }
+
+    // history/*
+    public void testHistoryWithLocation() {
+        String sortOrder = HistoryEntry.TABLE_NAME + "." + HistoryEntry.COLUMN_DATE + " ASC";
+        String plan = explain(WeatherProvider.buildHistoryByLocationSql(null,
+                        WeatherProvider.sLocationSettingSelection, sortOrder),
+                new String[]{TestUtilities.TEST_LOCATION});
+        assertNoScan("History by location setting", plan);
+        plan = explain(WeatherProvider.buildHistoryByLocationSql(null,
+                        WeatherProvider.sLocationSettingAndPeriodSelection, sortOrder),
+                new String[]{TestUtilities.TEST_LOCATION,
+                        Integer.toString(HistoryEntry.PERIOD_WEEK)});
+        assertNoScan("History by location setting and period", plan);
+    }
+
+    // weather, with the selections of the sync
+    public void testWeather() {
+        String plan = explain("SELECT * FROM " + WeatherEntry.TABLE_NAME +
+                " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{"1"});
+        assertNoScan("Stored forecast of a location", plan);
+        assertUsesIndex("Stored forecast of a location", plan,
+                WeatherDbHelper.WEATHER_LOCATION_INDEX_NAME);
+
+        plan = explain("DELETE FROM " + WeatherEntry.TABLE_NAME +
+                " WHERE " + WeatherEntry.COLUMN_DAY + " <= ?", new String[]{TEST_DAY});
+        assertNoScan("Deletion of old days", plan);
+
+        plan = explain("DELETE FROM " + WeatherEntry.TABLE_NAME +
+                " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                WeatherEntry.COLUMN_DAY + " > ?", new String[]{"1", TEST_DAY});
+        assertNoScan("Deletion of days beyond a forecast", plan);
+    }
+
+    // location
+    public void testLocation() {
+        String plan = explain("SELECT " + LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME +
+                " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{TestUtilities.TEST_LOCATION});
+        assertNoScan("Location by setting", plan);
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/*
+    The slow query log has to keep the plans of the slow calls, and nothing while it is off.
+ */
+public class TestSlowQueryLog extends AndroidTestCase {
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDb = SQLiteDatabase.create(null);
+        mDb.execSQL("CREATE TABLE t (_id INTEGER PRIMARY KEY, a INTEGER, b INTEGER)");
+        mDb.execSQL("CREATE INDEX t_a ON t (a)");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    private static String dump(SlowQueryLog log) {
+        StringWriter out = new StringWriter();
+        PrintWriter writer = new PrintWriter(out);
+        log.dump(writer);
+        writer.flush();
+        return out.toString();
+    }
+
+    public void testOff() {
+        SlowQueryLog log = new SlowQueryLog();
+        assertFalse(log.isEnabled());
+        long start = log.start();
+        log.setStatement("SELECT * FROM t WHERE b = ?", new String[]{"1"});
+        log.record(mDb, "query t", start, 0);
+
+        String dump = dump(log);
+        assertTrue("Error: Log not reported as off", dump.contains("off"));
+        assertFalse("Error: Call recorded while off", dump.contains("query t"));
+    }
+
+    public void testSlowCallPlans() {
+        SlowQueryLog log = new SlowQueryLog();
+        log.setThresholdMillis(0);
+
+        long start = log.start();
+        log.setStatement("SELECT * FROM t WHERE b = ?", new String[]{"1"});
+        log.record(mDb, "query scan", start, 3);
+
+        start = log.start();
+        log.setRowsStatement("t", "a = ?", new String[]{"1"});
+        log.record(mDb, "delete search", start, 1);
+
+        String dump = dump(log);
+        assertTrue("Error: Totals not dumped", dump.contains("3 rows  query scan"));
+        assertTrue("Error: Scan not in the plan", dump.contains("SCAN"));
+        assertTrue("Error: Search by the index not in the plan", dump.contains("t_a"));
+
+        // Turning it on again starts over
+        log.setThresholdMillis(1000);
+        assertFalse("Error: Calls kept", dump(log).contains("query scan"));
+    }
+}
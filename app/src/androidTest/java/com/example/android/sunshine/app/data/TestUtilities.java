@@ -65,6 +65,7 @@ public class TestUtilities extends AndroidTestCase {
         ContentValues weatherValues = new ContentValues();
         weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationRowId);
         weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, TEST_DATE);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DAY, WeatherContract.getDay(TEST_DATE));
         weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 1.1);
         weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 1.2);
         weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1.3);
@@ -77,6 +78,27 @@ public class TestUtilities extends AndroidTestCase {
         return weatherValues;
     }
 
+    /*
+        A month of history for the location, starting at the epoch.
+     */
+    static ContentValues createHistoryValues(long locationRowId) {
+        ContentValues historyValues = new ContentValues();
+        historyValues.put(WeatherContract.HistoryEntry.COLUMN_LOC_KEY, locationRowId);
+        historyValues.put(WeatherContract.HistoryEntry.COLUMN_DATE, 0L);
+        historyValues.put(WeatherContract.HistoryEntry.COLUMN_PERIOD,
+                WeatherContract.HistoryEntry.PERIOD_MONTH);
+        historyValues.put(WeatherContract.HistoryEntry.COLUMN_DAY_COUNT, 1);
+        historyValues.put(WeatherContract.HistoryEntry.COLUMN_MIN_TEMP, 65);
+        historyValues.put(WeatherContract.HistoryEntry.COLUMN_MAX_TEMP, 75);
+        historyValues.put(WeatherContract.HistoryEntry.COLUMN_AVG_MIN_TEMP, 65);
+        historyValues.put(WeatherContract.HistoryEntry.COLUMN_AVG_MAX_TEMP, 75);
+        historyValues.put(WeatherContract.HistoryEntry.COLUMN_HUMIDITY, 1.2);
+        historyValues.put(WeatherContract.HistoryEntry.COLUMN_PRESSURE, 1.3);
+        historyValues.put(WeatherContract.HistoryEntry.COLUMN_WIND_SPEED, 5.5);
+
+        return historyValues;
+    }
+
     /*
         Students: You can uncomment this helper function once you have finished creating the
         LocationEntry part of the WeatherContract.
@@ -158,6 +180,17 @@ public class TestUtilities extends AndroidTestCase {
             }.run();
             mHT.quit();
         }
+
+        // Waits a moment for a notification which mustn't come, and fails if it does
+        public void assertNoNotification() {
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mHT.quit();
+            assertFalse("Error: Observer notified of an unrelated change", mContentChanged);
+        }
     }
 
     static TestContentObserver getTestContentObserver() {
@@ -17,6 +17,8 @@ package com.example.android.sunshine.app.data;
 
 import android.net.Uri;
 import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+import android.text.format.Time;
 
 /*
     Students: This is NOT a complete test for the WeatherContract --- just for the functions
@@ -42,4 +44,26 @@ public class TestWeatherContract extends AndroidTestCase {
                 locationUri.toString(),
                 "content://com.example.android.sunshine.app/weather/%2FNorth%20Pole");
     }
+
+    /*
+        The dates are normalized with plain arithmetic, which has to agree with the Time class
+        it replaces, across the daylight saving changes of the local time zone as well.
+     */
+    public void testNormalizeDate() {
+        Time time = new Time();
+        long start = System.currentTimeMillis() - DateUtils.YEAR_IN_MILLIS;
+        for (long date = start; date < start + 2 * DateUtils.YEAR_IN_MILLIS;
+             date += 7 * DateUtils.HOUR_IN_MILLIS) {
+            time.set(date);
+            long expected = time.setJulianDay(Time.getJulianDay(date, time.gmtoff));
+            assertEquals("Error: Date " + date + " normalized differently",
+                    expected, WeatherContract.normalizeDate(date));
+
+            int day = WeatherContract.getDay(date);
+            assertEquals("Error: Normalized date on another day",
+                    day, WeatherContract.getDay(WeatherContract.normalizeDate(date)));
+            assertEquals("Error: Days not consecutive",
+                    day + 1, WeatherContract.getDay(WeatherContract.getStartOfDay(day + 1)));
+        }
+    }
 }
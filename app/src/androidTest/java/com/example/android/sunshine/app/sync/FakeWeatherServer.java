@@ -0,0 +1,203 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process HTTP server which answers every request with the same recorded forecast, so syncs
+ * can be run and timed without depending on the network or on OpenWeatherMap.
+ *
+ * Latency, error responses, truncated bodies and ETags can be configured to reproduce what a
+ * real server does.  The server only listens on the loopback interface.
+ */
+class FakeWeatherServer {
+
+    private static final String LOG_TAG = FakeWeatherServer.class.getSimpleName();
+
+    private final ServerSocket mServerSocket;
+    private final Thread mAcceptThread;
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+
+    private volatile byte[] mBody;
+    private volatile long mLatencyMillis;
+    private volatile int mStatusCode = 200;
+    private volatile int mTruncateAfter = -1;
+    private volatile String mETag;
+
+    FakeWeatherServer(String body) throws IOException {
+        mBody = body.getBytes("UTF-8");
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mAcceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, LOG_TAG);
+        mAcceptThread.start();
+    }
+
+    /**
+     * @return the URL to hand to {@link OwmWeatherSource} instead of OpenWeatherMap's
+     */
+    String getBaseUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/data/2.5/forecast/daily?";
+    }
+
+    void setBody(String body) throws IOException {
+        mBody = body.getBytes("UTF-8");
+    }
+
+    /**
+     * Delays every response by the given time, before the status line is sent.
+     */
+    void setLatency(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+    }
+
+    /**
+     * Answers with the given status code and an empty body if it isn't 200.
+     */
+    void setStatusCode(int statusCode) {
+        mStatusCode = statusCode;
+    }
+
+    /**
+     * Closes the connection after the given number of body bytes, -1 to send the whole body.
+     */
+    void setTruncateAfter(int byteCount) {
+        mTruncateAfter = byteCount;
+    }
+
+    /**
+     * Sends the ETag with every response, and answers requests which send it back with 304.
+     * Null turns validation off.
+     */
+    void setETag(String etag) {
+        mETag = etag;
+    }
+
+    int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    void shutdown() {
+        try {
+            mServerSocket.close();
+            mAcceptThread.join();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error closing server socket", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!mServerSocket.isClosed()) {
+            try {
+                final Socket socket = mServerSocket.accept();
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                }).start();
+            } catch (IOException e) {
+                // closed by shutdown()
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            String ifNoneMatch = null;
+            String line = in.readLine();
+            while (line != null && line.length() > 0) {
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("If-None-Match")) {
+                    ifNoneMatch = line.substring(colon + 1).trim();
+                }
+                line = in.readLine();
+            }
+            mRequestCount.incrementAndGet();
+
+            if (mLatencyMillis > 0) {
+                Thread.sleep(mLatencyMillis);
+            }
+
+            String etag = mETag;
+            byte[] body = mBody;
+            int statusCode = mStatusCode;
+            if (statusCode == 200 && etag != null && etag.equals(ifNoneMatch)) {
+                statusCode = 304;
+            }
+            if (statusCode != 200) {
+                body = new byte[0];
+            }
+
+            StringBuilder header = new StringBuilder();
+            header.append("HTTP/1.1 ").append(statusCode).append(' ')
+                    .append(statusCode == 200 ? "OK" : "Status").append("\r\n");
+            header.append("Content-Type: application/json; charset=utf-8\r\n");
+            header.append("Content-Length: ").append(body.length).append("\r\n");
+            if (etag != null) {
+                header.append("ETag: ").append(etag).append("\r\n");
+            }
+            header.append("Connection: close\r\n\r\n");
+
+            OutputStream out = socket.getOutputStream();
+            out.write(header.toString().getBytes("US-ASCII"));
+            int truncateAfter = mTruncateAfter;
+            out.write(body, 0, truncateAfter >= 0 ? Math.min(truncateAfter, body.length) : body.length);
+            out.flush();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error serving request", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing socket", e);
+            }
+        }
+    }
+
+    /**
+     * Builds a daily forecast response in OpenWeatherMap's format.  The same seed always gives
+     * the same forecast.
+     */
+    static String buildForecastJson(String cityName, int dayCount, long seed) {
+        Random random = new Random(seed);
+        StringBuilder json = new StringBuilder();
+        json.append("{\"city\":{\"name\":\"").append(cityName)
+                .append("\",\"coord\":{\"lat\":64.7488,\"lon\":-147.353}},");
+        json.append("\"cod\":\"200\",\"cnt\":").append(dayCount).append(",\"list\":[");
+        for (int i = 0; i < dayCount; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            double min = -10 + random.nextInt(200) / 10.0;
+            double max = min + random.nextInt(100) / 10.0;
+            json.append(String.format(Locale.US,
+                    "{\"temp\":{\"min\":%.1f,\"max\":%.1f},\"pressure\":%.1f,\"humidity\":%d,"
+                            + "\"weather\":[{\"id\":%d,\"main\":\"Clear\",\"description\":\"sky is clear\"}],"
+                            + "\"speed\":%.1f,\"deg\":%d}",
+                    min, max, 990 + random.nextInt(400) / 10.0, random.nextInt(100),
+                    800 + random.nextInt(5), random.nextInt(150) / 10.0, random.nextInt(360)));
+        }
+        json.append("]}");
+        return json.toString();
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import java.util.Map;
+
+/**
+ * Copy of the default preferences, so tests which run syncs or the scheduler can put back
+ * everything those changed.
+ */
+class PrefsSnapshot {
+
+    private final SharedPreferences mPrefs;
+    private final Map<String, ?> mValues;
+
+    private PrefsSnapshot(SharedPreferences prefs) {
+        mPrefs = prefs;
+        mValues = prefs.getAll();
+    }
+
+    static PrefsSnapshot take(Context context) {
+        return new PrefsSnapshot(PreferenceManager.getDefaultSharedPreferences(context));
+    }
+
+    /**
+     * Puts back the preferences as they were when the snapshot was taken.
+     */
+    void restore() {
+        SharedPreferences.Editor editor = mPrefs.edit().clear();
+        for (Map.Entry<String, ?> entry : mValues.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Boolean) {
+                editor.putBoolean(entry.getKey(), (Boolean) value);
+            } else if (value instanceof Integer) {
+                editor.putInt(entry.getKey(), (Integer) value);
+            } else if (value instanceof Long) {
+                editor.putLong(entry.getKey(), (Long) value);
+            } else if (value instanceof Float) {
+                editor.putFloat(entry.getKey(), (Float) value);
+            } else if (value instanceof String) {
+                editor.putString(entry.getKey(), (String) value);
+            }
+        }
+        editor.commit();
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestForecastBatch extends AndroidTestCase {
+
+    private static final String TEST_LOCATION = "99705";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HistoryEntry.CONTENT_URI, null, null);
+    }
+
+    private static LocationForecast createForecast(String cityName, int dayCount, double maxTemp) {
+        LocationForecast forecast = new LocationForecast(TEST_LOCATION, "http://localhost/");
+        forecast.onCity(cityName, 64.7488, -147.353);
+        for (int i = 0; i < dayCount; i++) {
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+            weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+            weatherValues.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, i == 0 ? maxTemp : 75);
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, 65);
+            weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+            weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, 321);
+            forecast.onDay(i, weatherValues);
+        }
+        forecast.setStatus(SunshineSyncAdapter.LOCATION_STATUS_OK);
+        return forecast;
+    }
+
+    private ContentProviderResult[] replace(ForecastBatch batch, LocationForecast forecast)
+            throws Exception {
+        batch.add(forecast);
+        batch.archiveUpTo(forecast.getYesterday());
+        return batch.commit();
+    }
+
+    private int countDays() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TEST_LOCATION), null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    public void testReplaceForecast() throws Exception {
+        ForecastBatch batch = new ForecastBatch(mContext.getContentResolver());
+        replace(batch, createForecast("North Pole", 14, 75));
+        assertEquals("Error: Forecast not stored", 14, countDays());
+
+        // A shorter forecast with one changed day, for a renamed location
+        batch = new ForecastBatch(mContext.getContentResolver());
+        LocationForecast forecast = createForecast("Santa's Village", 7, 80);
+        assertEquals("Error: Unchanged days queued for writing", 1, batch.add(forecast));
+        batch.archiveUpTo(forecast.getYesterday());
+        ContentProviderResult[] results = batch.commit();
+
+        assertEquals("Error: Location not updated", 1, batch.getUpdatedCount(results));
+        assertEquals("Error: Days beyond the new forecast not deleted",
+                7, batch.getDeletedCount(results));
+        assertEquals("Error: Forecast not replaced", 7, countDays());
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_CITY_NAME}, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Santa's Village", cursor.getString(0));
+        assertEquals("Error: Location duplicated", 1, cursor.getCount());
+        cursor.close();
+
+        // The same forecast again changes nothing at all
+        batch = new ForecastBatch(mContext.getContentResolver());
+        results = replace(batch, createForecast("Santa's Village", 7, 80));
+        assertEquals("Error: Unchanged location updated", 0, batch.getUpdatedCount(results));
+        assertEquals("Error: Days deleted from an unchanged forecast",
+                0, batch.getDeletedCount(results));
+    }
+
+    public void testArchivePastDays() throws Exception {
+        replace(new ForecastBatch(mContext.getContentResolver()), createForecast("North Pole", 7, 75));
+
+        // The day before yesterday, as left over by an earlier sync
+        LocationForecast forecast = createForecast("North Pole", 7, 75);
+        ContentValues pastValues = new ContentValues(forecast.getDays().get(0));
+        pastValues.put(WeatherEntry.COLUMN_DATE,
+                forecast.getYesterday() - DateUtils.DAY_IN_MILLIS);
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID}, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        long locationId = cursor.getLong(0);
+        pastValues.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+        cursor.close();
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, pastValues);
+        assertEquals(8, countDays());
+
+        ForecastBatch batch = new ForecastBatch(mContext.getContentResolver());
+        ContentProviderResult[] results = replace(batch, forecast);
+        assertEquals("Error: Past day not deleted", 1, batch.getDeletedCount(results));
+        assertEquals("Error: Past day not counted for its location",
+                1, batch.getDeletedCount(results, locationId));
+        assertEquals("Error: Past day counted for another location",
+                0, batch.getDeletedCount(results, locationId + 1));
+        assertEquals(7, countDays());
+
+        cursor = mContext.getContentResolver().query(
+                HistoryEntry.buildHistoryLocation(TEST_LOCATION),
+                new String[]{HistoryEntry.COLUMN_PERIOD, HistoryEntry.COLUMN_AVG_MAX_TEMP},
+                null, null, null);
+        assertTrue("Error: Past day not archived", cursor.moveToFirst());
+        assertEquals(HistoryEntry.PERIOD_DAY, cursor.getInt(0));
+        assertEquals(75.0, cursor.getDouble(1));
+        assertEquals("Error: Forecast days archived", 1, cursor.getCount());
+        cursor.close();
+    }
+}
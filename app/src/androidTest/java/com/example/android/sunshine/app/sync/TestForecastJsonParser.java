@@ -0,0 +1,146 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    The forecast parser has to hand over every day of a well-formed response, ignore what it
+    doesn't know, and fail with an error the sync can tell apart on broken responses.
+ */
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    private static final String DAY_JSON =
+            "{\"temp\":{\"min\":-3.5,\"max\":12.25},\"pressure\":1013.5,\"humidity\":81,"
+                    + "\"weather\":[{\"id\":800,\"main\":\"Clear\"}],\"speed\":4.5,\"deg\":270}";
+
+    // Collects what the parser hands over
+    private static class Collector implements ForecastJsonParser.Listener {
+        String mCityName;
+        double mLat;
+        double mLon;
+        final List<ContentValues> mDays = new ArrayList<ContentValues>();
+
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+            mCityName = cityName;
+            mLat = lat;
+            mLon = lon;
+        }
+
+        @Override
+        public void onDay(int dayIndex, ContentValues dayValues) {
+            assertEquals("Error: Days out of order", mDays.size(), dayIndex);
+            mDays.add(dayValues);
+        }
+    }
+
+    private static Collector parse(String json) throws IOException, JSONException {
+        Collector collector = new Collector();
+        int messageCode = new ForecastJsonParser().parse(new StringReader(json), collector);
+        assertEquals(HttpURLConnection.HTTP_OK, messageCode);
+        return collector;
+    }
+
+    private static void assertParseFails(String json, Class<? extends Exception> expected) {
+        try {
+            new ForecastJsonParser().parse(new StringReader(json), new Collector());
+            fail("Error: Parsed " + json);
+        } catch (Exception e) {
+            assertTrue("Error: " + e + " thrown for " + json, expected.isInstance(e));
+        }
+    }
+
+    public void testWellFormed() throws Exception {
+        Collector collector = parse("{\"city\":{\"name\":\"Fairbanks\","
+                + "\"coord\":{\"lat\":64.7488,\"lon\":-147.353}},"
+                + "\"cod\":\"200\",\"cnt\":2,\"list\":[" + DAY_JSON + "," + DAY_JSON + "]}");
+
+        assertEquals("Fairbanks", collector.mCityName);
+        assertEquals(64.7488, collector.mLat);
+        assertEquals(-147.353, collector.mLon);
+        assertEquals("Error: Not all days handed over", 2, collector.mDays.size());
+
+        ContentValues day = collector.mDays.get(0);
+        assertEquals(-3.5, day.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP));
+        assertEquals(12.25, day.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP));
+        assertEquals(1013.5, day.getAsDouble(WeatherEntry.COLUMN_PRESSURE));
+        assertEquals(81, (int) day.getAsInteger(WeatherEntry.COLUMN_HUMIDITY));
+        assertEquals(800, (int) day.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID));
+        assertEquals("Clear", day.getAsString(WeatherEntry.COLUMN_SHORT_DESC));
+        assertEquals(4.5, day.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED));
+        assertEquals(270.0, day.getAsDouble(WeatherEntry.COLUMN_DEGREES));
+    }
+
+    public void testGeneratedForecast() throws Exception {
+        Collector collector = parse(FakeWeatherServer.buildForecastJson("Juneau", 14, 7));
+        assertEquals("Juneau", collector.mCityName);
+        assertEquals(14, collector.mDays.size());
+    }
+
+    public void testMessageCode() throws Exception {
+        int messageCode = new ForecastJsonParser().parse(
+                new StringReader("{\"cod\":\"404\",\"message\":\"city not found\"}"),
+                new Collector());
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, messageCode);
+    }
+
+    public void testUnknownFields() throws Exception {
+        String day = DAY_JSON.replace("\"speed\"",
+                "\"rain\":{\"3h\":[1,2,{\"x\":null}]},\"clouds\":true,\"speed\"");
+        Collector collector = parse("{\"message\":0.01,\"city\":{\"id\":5861897,"
+                + "\"name\":\"Fairbanks\",\"country\":\"US\",\"population\":0,"
+                + "\"coord\":{\"lat\":64.7488,\"lon\":-147.353,\"alt\":136}},"
+                + "\"list\":[" + day + "],\"extra\":[{\"nested\":[]}]}");
+
+        assertEquals("Fairbanks", collector.mCityName);
+        assertEquals("Error: Day with unknown fields not handed over",
+                1, collector.mDays.size());
+        assertEquals(4.5, collector.mDays.get(0).getAsDouble(WeatherEntry.COLUMN_WIND_SPEED));
+    }
+
+    public void testTruncated() {
+        String json = FakeWeatherServer.buildForecastJson("Fairbanks", 14, 1);
+        // Cut anywhere, e.g. in the middle of a string or between two days, the response has
+        // to fail with an error the sync reports, rather than pass for a shorter forecast
+        for (int length = 0; length < json.length(); length += 7) {
+            Collector collector = new Collector();
+            try {
+                new ForecastJsonParser().parse(
+                        new StringReader(json.substring(0, length)), collector);
+                fail("Error: Parsed the first " + length + " characters");
+            } catch (IOException | JSONException e) {
+                assertTrue(collector.mDays.size() < 14);
+            }
+        }
+    }
+
+    public void testUnexpectedTypes() {
+        // a response we can't make sense of is not worth retrying soon
+        assertParseFails("[]", JSONException.class);
+        assertParseFails("{\"list\":{}}", JSONException.class);
+        assertParseFails("{\"city\":{\"name\":\"Fairbanks\"},\"list\":["
+                + DAY_JSON.replace("\"humidity\":81", "\"humidity\":\"wet\"") + "]}",
+                JSONException.class);
+        assertParseFails("{\"city\":{\"name\":\"Fairbanks\"},\"list\":["
+                + DAY_JSON.replace("\"temp\":{\"min\":-3.5,\"max\":12.25}", "\"temp\":12") + "]}",
+                JSONException.class);
+    }
+
+    public void testMissingFields() {
+        assertParseFails("{\"city\":{\"coord\":{\"lat\":1,\"lon\":2}},\"list\":[]}",
+                JSONException.class);
+        assertParseFails("{\"city\":{\"name\":\"Fairbanks\"},\"list\":["
+                + DAY_JSON.replace("\"pressure\":1013.5,", "") + "]}",
+                JSONException.class);
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    The hashes of the stored days decide which days of a new forecast are written, and whether
+    today's forecast has changed for the consumers.
+ */
+public class TestStoredForecast extends AndroidTestCase {
+
+    private static final String TEST_LOCATION = "99705";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HistoryEntry.CONTENT_URI, null, null);
+    }
+
+    private static LocationForecast createForecast(int dayCount, double maxTemp) {
+        LocationForecast forecast = new LocationForecast(TEST_LOCATION, "http://localhost/");
+        forecast.onCity("North Pole", 64.7488, -147.353);
+        for (int i = 0; i < dayCount; i++) {
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+            weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+            weatherValues.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, maxTemp);
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, 65);
+            weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+            weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, 321);
+            forecast.onDay(i, weatherValues);
+        }
+        forecast.setStatus(SunshineSyncAdapter.LOCATION_STATUS_OK);
+        return forecast;
+    }
+
+    // Stores the forecast the way the sync does and loads the hashes back
+    private StoredForecast store(LocationForecast forecast) throws Exception {
+        ForecastBatch batch = new ForecastBatch(mContext.getContentResolver());
+        batch.add(forecast);
+        batch.commit();
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID}, null, null, null);
+        assertTrue("Error: Location not stored", cursor.moveToFirst());
+        long locationId = cursor.getLong(0);
+        cursor.close();
+        return StoredForecast.load(mContext.getContentResolver(), locationId);
+    }
+
+    public void testIsUnchanged() throws Exception {
+        StoredForecast stored = store(createForecast(7, 75));
+
+        for (ContentValues day : createForecast(7, 75).getDays()) {
+            assertTrue("Error: Same day taken for a changed one", stored.isUnchanged(day));
+        }
+        ContentValues changed = createForecast(1, 80).getDays().get(0);
+        assertFalse("Error: Changed day taken for an unchanged one", stored.isUnchanged(changed));
+
+        // a day which isn't stored yet
+        ContentValues later = new ContentValues(createForecast(7, 75).getDays().get(6));
+        later.put(WeatherEntry.COLUMN_DATE,
+                later.getAsLong(WeatherEntry.COLUMN_DATE) + DateUtils.DAY_IN_MILLIS);
+        assertFalse("Error: New day taken for an unchanged one", stored.isUnchanged(later));
+
+        // the dates are compared normalized, as the provider stores them
+        ContentValues sameDay = new ContentValues(createForecast(1, 75).getDays().get(0));
+        sameDay.put(WeatherEntry.COLUMN_DATE,
+                sameDay.getAsLong(WeatherEntry.COLUMN_DATE) + DateUtils.HOUR_IN_MILLIS);
+        assertTrue("Error: Day not matched by its normalized date", stored.isUnchanged(sameDay));
+
+        assertTrue(stored.hasDaysAfter(WeatherContract.normalizeDate(System.currentTimeMillis())));
+        assertFalse(stored.hasDaysAfter(later.getAsLong(WeatherEntry.COLUMN_DATE)));
+    }
+
+    public void testDayHash() throws Exception {
+        LocationForecast forecast = createForecast(7, 75);
+        StoredForecast stored = store(forecast);
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+
+        // after a 304 the stored day stands in for the one which hasn't been sent again
+        assertEquals("Error: Stored today differs from the received one",
+                forecast.getTodayHash(), stored.getDayHash(today));
+        assertEquals(StoredForecast.hashOfDay(forecast.getDays().get(0), today),
+                stored.getDayHash(today));
+        assertEquals("Error: Hash of a day which isn't stored",
+                0, stored.getDayHash(today - 30 * DateUtils.DAY_IN_MILLIS));
+
+        // the same weather on another day is another today for the consumers
+        ContentValues day = forecast.getDays().get(0);
+        assertTrue("Error: Hash doesn't change with the day",
+                StoredForecast.hashOfDay(day, today)
+                        != StoredForecast.hashOfDay(day, today + DateUtils.DAY_IN_MILLIS));
+        assertTrue("Error: Hash doesn't change with the weather",
+                StoredForecast.hashOfDay(day, today) != createForecast(1, 80).getTodayHash());
+    }
+}
@@ -0,0 +1,201 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SyncResult;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.common.data.Weather;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+    Runs complete syncs against a FakeWeatherServer, so the numbers only depend on the parsing
+    and the database, not on the network.  The consumers and the scheduler do nothing, so the
+    benchmark neither shows notifications nor reschedules the syncs of the device, and the
+    preferences it changes are restored.  Check the log for the timings.  Not part of the
+    FullTestSuite, run it through the BenchmarkSuite.
+ */
+public class TestSyncBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSyncBenchmark.class.getSimpleName();
+
+    private static final int SYNC_COUNT = 20;
+    private static final int DAY_COUNT = 14;
+    private static final List<String> BENCHMARK_LOCATIONS =
+            Arrays.asList("Fairbanks", "Anchorage", "Juneau");
+
+    private FakeWeatherServer mServer;
+    private SunshineSyncAdapter mSyncAdapter;
+    private PrefsSnapshot mPrefs;
+
+    private static class NoConsumers implements SunshineSyncAdapter.Consumers {
+        @Override
+        public void updateWidgets() {}
+
+        @Override
+        public void updateMuzei() {}
+
+        @Override
+        public void notifyWeather(Weather today, SyncTrace trace) {}
+
+        @Override
+        public void updateWear(Weather today) {}
+    }
+
+    private static class NoScheduler extends SyncScheduler {
+        NoScheduler(Context context) {
+            super(context);
+        }
+
+        @Override
+        void onSyncFinished(boolean fresh, int dayCount, int changedCount) {}
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mPrefs = PrefsSnapshot.take(mContext);
+        Utility.setTrackedLocations(mContext, BENCHMARK_LOCATIONS);
+
+        mServer = new FakeWeatherServer(
+                FakeWeatherServer.buildForecastJson("Fairbanks", DAY_COUNT, 1));
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false,
+                new OwmWeatherSource(mContext, mServer.getBaseUrl()),
+                new NoConsumers(), new NoScheduler(mContext));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        // the syncs change several preferences
+        mPrefs.restore();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.HistoryEntry.CONTENT_URI, null, null);
+    }
+
+    private SyncResult sync() {
+        SyncResult syncResult = new SyncResult();
+        mSyncAdapter.onPerformSync(null, new Bundle(), WeatherContract.CONTENT_AUTHORITY,
+                null, syncResult);
+        return syncResult;
+    }
+
+    private int locationCount() {
+        return Utility.getTrackedLocations(mContext).size();
+    }
+
+    private void logTimings(String name, long[] nanos) {
+        Arrays.sort(nanos);
+        long total = 0;
+        for (long time : nanos) {
+            total += time;
+        }
+        Log.d(LOG_TAG, name + ": " + nanos.length + " syncs"
+                + ", median " + nanos[nanos.length / 2] / 1000 + "us"
+                + ", p90 " + nanos[nanos.length * 9 / 10] / 1000 + "us"
+                + ", " + (nanos.length * 1000000000L / Math.max(total, 1)) + " syncs/s");
+    }
+
+    /*
+        Every sync downloads a different forecast, so every day has to be written.
+     */
+    public void testChangingForecast() throws Exception {
+        long[] nanos = new long[SYNC_COUNT];
+        for (int i = 0; i < SYNC_COUNT; i++) {
+            mServer.setBody(FakeWeatherServer.buildForecastJson("Fairbanks", DAY_COUNT, i + 1));
+            long start = System.nanoTime();
+            SyncResult syncResult = sync();
+            nanos[i] = System.nanoTime() - start;
+
+            assertFalse("Error: Sync failed", syncResult.hasError());
+            assertEquals("Error: Not all days have been received",
+                    locationCount() * DAY_COUNT, syncResult.stats.numEntries);
+        }
+        logTimings("Changing forecast", nanos);
+    }
+
+    /*
+        The forecast never changes, so after the first sync nothing should be written.
+     */
+    public void testUnchangedForecast() throws Exception {
+        sync();
+        long[] nanos = new long[SYNC_COUNT];
+        for (int i = 0; i < SYNC_COUNT; i++) {
+            long start = System.nanoTime();
+            SyncResult syncResult = sync();
+            nanos[i] = System.nanoTime() - start;
+
+            assertFalse("Error: Sync failed", syncResult.hasError());
+            assertEquals("Error: Unchanged days have been written",
+                    0, syncResult.stats.numInserts);
+        }
+        logTimings("Unchanged forecast", nanos);
+    }
+
+    /*
+        With an ETag the server answers with 304 and there is nothing to parse.
+     */
+    public void testNotModified() throws Exception {
+        mServer.setETag("\"benchmark\"");
+        sync();
+        long[] nanos = new long[SYNC_COUNT];
+        for (int i = 0; i < SYNC_COUNT; i++) {
+            long start = System.nanoTime();
+            SyncResult syncResult = sync();
+            nanos[i] = System.nanoTime() - start;
+
+            assertFalse("Error: Sync failed", syncResult.hasError());
+            assertEquals("Error: Days of a 304 response have been counted",
+                    0, syncResult.stats.numEntries);
+        }
+        logTimings("Not modified", nanos);
+    }
+
+    /*
+        Locations are fetched in parallel, so a sync should take about as long as one request.
+     */
+    public void testLatency() throws Exception {
+        final long latency = 200;
+        mServer.setLatency(latency);
+        long start = System.nanoTime();
+        SyncResult syncResult = sync();
+        long millis = (System.nanoTime() - start) / 1000000;
+
+        assertFalse("Error: Sync failed", syncResult.hasError());
+        Log.d(LOG_TAG, "Latency " + latency + "ms, " + locationCount()
+                + " locations: sync took " + millis + "ms");
+        assertTrue("Error: Locations haven't been fetched in parallel",
+                millis < latency * locationCount());
+    }
+
+    public void testServerError() throws Exception {
+        mServer.setStatusCode(HttpURLConnection.HTTP_INTERNAL_ERROR);
+        SyncResult syncResult = sync();
+
+        assertEquals("Error: Server errors haven't been counted",
+                locationCount(), syncResult.stats.numIoExceptions);
+        assertEquals("Error: Days have been stored", 0, syncResult.stats.numInserts);
+    }
+
+    public void testTruncatedResponse() throws Exception {
+        mServer.setTruncateAfter(100);
+        SyncResult syncResult = sync();
+
+        assertTrue("Error: Truncated response hasn't been reported",
+                syncResult.stats.numIoExceptions + syncResult.stats.numParseExceptions > 0);
+        assertEquals("Error: Days have been stored", 0, syncResult.stats.numInserts);
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.SyncResult;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.common.data.Weather;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Runs syncs against a FakeWeatherServer and checks which consumers they wake up: the widgets
+    for any change of the preferred location, Muzei and the wearable when today's forecast
+    changes, and nobody when nothing has.  The preferences the syncs change are restored.
+ */
+public class TestSyncConsumers extends AndroidTestCase {
+
+    private static final String TEST_LOCATION = "99705";
+    private static final int DAY_COUNT = 7;
+
+    private static final String WIDGETS = "widgets";
+    private static final String MUZEI = "muzei";
+    private static final String NOTIFICATION = "notification";
+    private static final String WEAR = "wear";
+
+    private FakeWeatherServer mServer;
+    private SunshineSyncAdapter mSyncAdapter;
+    private RecordingConsumers mConsumers;
+    private PrefsSnapshot mPrefs;
+    private SharedPreferences mSharedPrefs;
+
+    // Remembers which consumers have been woken up, they are called on other threads
+    private static class RecordingConsumers implements SunshineSyncAdapter.Consumers {
+        private final List<String> mCalled = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void updateWidgets() {
+            mCalled.add(WIDGETS);
+        }
+
+        @Override
+        public void updateMuzei() {
+            mCalled.add(MUZEI);
+        }
+
+        @Override
+        public void notifyWeather(Weather today, SyncTrace trace) {
+            // the notification shows today's weather, it has to be there
+            if (today != null) {
+                mCalled.add(NOTIFICATION);
+            }
+        }
+
+        @Override
+        public void updateWear(Weather today) {
+            mCalled.add(WEAR);
+        }
+
+        // the consumers of the last sync, in a stable order
+        List<String> takeCalled() {
+            List<String> called = new ArrayList<String>(mCalled);
+            mCalled.clear();
+            Collections.sort(called);
+            return called;
+        }
+    }
+
+    private static class NoScheduler extends SyncScheduler {
+        NoScheduler(Context context) {
+            super(context);
+        }
+
+        @Override
+        void onSyncFinished(boolean fresh, int dayCount, int changedCount) {}
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mPrefs = PrefsSnapshot.take(mContext);
+        mSharedPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        // the wearable has just been updated and notifications are off, so only changes of
+        // the forecast wake up the consumers
+        mSharedPrefs.edit()
+                .putString(mContext.getString(R.string.pref_location_key), TEST_LOCATION)
+                .remove(mContext.getString(R.string.pref_last_today_hash))
+                .putLong(mContext.getString(R.string.pref_last_wear_update),
+                        System.currentTimeMillis())
+                .putBoolean(mContext.getString(R.string.pref_enable_notifications_key), false)
+                .commit();
+        Utility.setTrackedLocations(mContext, Collections.<String>emptyList());
+
+        mServer = new FakeWeatherServer(
+                FakeWeatherServer.buildForecastJson("Fairbanks", DAY_COUNT, 1));
+        mConsumers = new RecordingConsumers();
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false,
+                new OwmWeatherSource(mContext, mServer.getBaseUrl()),
+                mConsumers, new NoScheduler(mContext));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        mPrefs.restore();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.HistoryEntry.CONTENT_URI, null, null);
+    }
+
+    // Syncs and returns the consumers it has woken up
+    private List<String> sync() {
+        SyncResult syncResult = new SyncResult();
+        mSyncAdapter.onPerformSync(null, new Bundle(), WeatherContract.CONTENT_AUTHORITY,
+                null, syncResult);
+        assertFalse("Error: Sync failed", syncResult.hasError());
+        return mConsumers.takeCalled();
+    }
+
+    public void testFirstSync() {
+        assertEquals(Arrays.asList(MUZEI, WEAR, WIDGETS), sync());
+    }
+
+    public void testUnchangedForecast() {
+        sync();
+        assertEquals("Error: Consumers woken up without a change",
+                Collections.<String>emptyList(), sync());
+    }
+
+    public void testNotModified() {
+        mServer.setETag("\"consumers\"");
+        sync();
+        assertEquals("Error: Consumers woken up by a 304",
+                Collections.<String>emptyList(), sync());
+    }
+
+    public void testTodayChanged() throws Exception {
+        sync();
+        mServer.setBody(FakeWeatherServer.buildForecastJson("Fairbanks", DAY_COUNT, 2));
+        assertEquals(Arrays.asList(MUZEI, WEAR, WIDGETS), sync());
+    }
+
+    public void testLaterDayChanged() throws Exception {
+        sync();
+        // only the wind direction of the last day changes, today stays the same
+        String json = FakeWeatherServer.buildForecastJson("Fairbanks", DAY_COUNT, 1);
+        mServer.setBody(json.substring(0, json.lastIndexOf("\"deg\":")) + "\"deg\":361}]}");
+        assertEquals("Error: Only the widgets show the later days",
+                Collections.singletonList(WIDGETS), sync());
+    }
+
+    public void testWearUpdateDue() {
+        sync();
+        mSharedPrefs.edit()
+                .putLong(mContext.getString(R.string.pref_last_wear_update), 0).commit();
+        assertEquals("Error: Outdated wearable not updated without a change",
+                Collections.singletonList(WEAR), sync());
+    }
+
+    public void testNotificationDue() {
+        sync();
+        mSharedPrefs.edit()
+                .putBoolean(mContext.getString(R.string.pref_enable_notifications_key), true)
+                .putLong(mContext.getString(R.string.pref_last_notification), 0)
+                .commit();
+        assertEquals("Error: Daily notification not shown without a change",
+                Collections.singletonList(NOTIFICATION), sync());
+    }
+}
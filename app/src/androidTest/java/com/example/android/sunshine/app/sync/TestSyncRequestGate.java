@@ -0,0 +1,58 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+/*
+    Requests made while a sync is queued or running have to be folded into it, and the next
+    one after it has finished has to go through again.
+ */
+public class TestSyncRequestGate extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // the gate is process wide, start from idle
+        SyncRequestGate.onSyncFinished();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SyncRequestGate.onSyncFinished();
+        super.tearDown();
+    }
+
+    public void testCoalesceWhileQueued() {
+        long total = SyncRequestGate.getCoalescedTotal();
+        assertTrue("Error: First request not let through", SyncRequestGate.tryRequest());
+        assertFalse("Error: Request while queued let through", SyncRequestGate.tryRequest());
+        assertFalse("Error: Request while queued let through", SyncRequestGate.tryRequest());
+
+        SyncRequestGate.onSyncStarted();
+        assertEquals("Error: Coalesced requests not counted", 2, SyncRequestGate.onSyncFinished());
+        assertEquals(total + 2, SyncRequestGate.getCoalescedTotal());
+    }
+
+    public void testCoalesceWhileRunning() {
+        assertTrue(SyncRequestGate.tryRequest());
+        SyncRequestGate.onSyncStarted();
+        assertFalse("Error: Request while running let through", SyncRequestGate.tryRequest());
+        assertEquals(1, SyncRequestGate.onSyncFinished());
+
+        // A sync the gate didn't request, e.g. a periodic one, holds back requests as well
+        SyncRequestGate.onSyncStarted();
+        assertFalse("Error: Request during a periodic sync let through",
+                SyncRequestGate.tryRequest());
+        assertEquals(1, SyncRequestGate.onSyncFinished());
+    }
+
+    public void testRequestAfterSync() {
+        assertTrue(SyncRequestGate.tryRequest());
+        SyncRequestGate.onSyncStarted();
+        assertEquals("Error: Requests counted which weren't coalesced",
+                0, SyncRequestGate.onSyncFinished());
+
+        assertTrue("Error: Request after the sync held back", SyncRequestGate.tryRequest());
+        assertEquals("Error: Count not reset by the finished sync",
+                0, SyncRequestGate.onSyncFinished());
+    }
+}
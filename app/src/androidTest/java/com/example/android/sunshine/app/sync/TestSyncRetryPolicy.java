@@ -0,0 +1,110 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.SharedPreferences;
+import android.content.SyncResult;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+
+import java.util.Random;
+
+/*
+    The backoff of failed syncs: the delays stay within their bounds, the retries stop after
+    MAX_ATTEMPTS and a successful sync starts over.
+ */
+public class TestSyncRetryPolicy extends AndroidTestCase {
+
+    private SharedPreferences mPrefs;
+    private String mAttemptKey;
+    private int mAttempts;
+
+    // Always draws the same number, to pin the jitter at one end
+    private static class FixedRandom extends Random {
+        private final double mValue;
+
+        FixedRandom(double value) {
+            mValue = value;
+        }
+
+        @Override
+        public double nextDouble() {
+            return mValue;
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mAttemptKey = mContext.getString(R.string.pref_sync_failed_attempts);
+        mAttempts = mPrefs.getInt(mAttemptKey, 0);
+        mPrefs.edit().putInt(mAttemptKey, 0).commit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit().putInt(mAttemptKey, mAttempts).commit();
+        super.tearDown();
+    }
+
+    public void testComputeDelay() {
+        Random random = new Random(42);
+        for (int attempt = 1; attempt <= 40; attempt++) {
+            long backoff = Math.min(SyncRetryPolicy.MAX_DELAY_SECONDS,
+                    SyncRetryPolicy.BASE_DELAY_SECONDS << Math.min(attempt - 1, 16));
+            long delay = SyncRetryPolicy.computeDelay(attempt, random);
+            assertTrue("Error: Delay of attempt " + attempt + " below half the backoff",
+                    delay >= backoff / 2);
+            assertTrue("Error: Delay of attempt " + attempt + " above the backoff",
+                    delay <= backoff);
+        }
+
+        assertEquals("Error: First delay without jitter",
+                SyncRetryPolicy.BASE_DELAY_SECONDS / 2,
+                SyncRetryPolicy.computeDelay(1, new FixedRandom(0)));
+        assertEquals("Error: Delay not capped", SyncRetryPolicy.MAX_DELAY_SECONDS,
+                SyncRetryPolicy.computeDelay(1000, new FixedRandom(1)));
+        assertTrue("Error: Backoff doesn't grow",
+                SyncRetryPolicy.computeDelay(3, new FixedRandom(0))
+                        > SyncRetryPolicy.computeDelay(2, new FixedRandom(0)));
+    }
+
+    public void testGivesUp() {
+        SyncRetryPolicy retryPolicy = new SyncRetryPolicy(mContext);
+        for (int attempt = 1; attempt < SyncRetryPolicy.MAX_ATTEMPTS; attempt++) {
+            SyncResult syncResult = new SyncResult();
+            long now = System.currentTimeMillis() / 1000;
+            retryPolicy.onSoftError(syncResult);
+
+            assertFalse("Error: Gave up after " + attempt + " attempts",
+                    syncResult.tooManyRetries);
+            assertTrue("Error: Retry not delayed", syncResult.delayUntil > now);
+            assertEquals(attempt, mPrefs.getInt(mAttemptKey, 0));
+        }
+
+        SyncResult syncResult = new SyncResult();
+        retryPolicy.onSoftError(syncResult);
+        assertTrue("Error: Didn't give up after " + SyncRetryPolicy.MAX_ATTEMPTS + " attempts",
+                syncResult.tooManyRetries);
+        assertEquals("Error: Attempts not reset after giving up",
+                0, mPrefs.getInt(mAttemptKey, 0));
+    }
+
+    public void testSuccessResets() {
+        SyncRetryPolicy retryPolicy = new SyncRetryPolicy(mContext);
+        retryPolicy.onSoftError(new SyncResult());
+        retryPolicy.onSoftError(new SyncResult());
+        assertEquals(2, mPrefs.getInt(mAttemptKey, 0));
+
+        retryPolicy.onSuccess();
+        assertEquals("Error: Attempts not reset", 0, mPrefs.getInt(mAttemptKey, 0));
+
+        // The backoff starts over
+        SyncResult syncResult = new SyncResult();
+        long now = System.currentTimeMillis() / 1000;
+        retryPolicy.onSoftError(syncResult);
+        assertTrue("Error: Backoff didn't start over", syncResult.delayUntil
+                <= now + 1 + SyncRetryPolicy.BASE_DELAY_SECONDS);
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+
+/*
+    The periodic sync interval: long while nobody looks at the data, short while it is stale,
+    never longer than the wearable can wait, and shorter for a forecast which keeps changing.
+    The network the device is on may stretch the interval, so apart from the fixed cases only
+    bounds and orderings are checked.
+ */
+public class TestSyncScheduler extends AndroidTestCase {
+
+    private PrefsSnapshot mPrefs;
+    private SharedPreferences mSharedPrefs;
+
+    // Ignores the widgets of the device
+    private static class NoWidgetsScheduler extends SyncScheduler {
+        NoWidgetsScheduler(Context context) {
+            super(context);
+        }
+
+        @Override
+        boolean hasWidgets() {
+            return false;
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PrefsSnapshot.take(mContext);
+        mSharedPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mSharedPrefs.edit()
+                .remove(mContext.getString(R.string.pref_last_wear_seen))
+                .remove(mContext.getString(R.string.pref_muzei_enabled))
+                .remove(mContext.getString(R.string.pref_forecast_volatility))
+                .putLong(mContext.getString(R.string.pref_last_sync), System.currentTimeMillis())
+                .commit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.restore();
+        super.tearDown();
+    }
+
+    private int computeSyncInterval() {
+        return new NoWidgetsScheduler(mContext).computeSyncInterval();
+    }
+
+    private void setMuzeiEnabled() {
+        mSharedPrefs.edit()
+                .putBoolean(mContext.getString(R.string.pref_muzei_enabled), true).commit();
+    }
+
+    private void setVolatility(float volatility) {
+        mSharedPrefs.edit()
+                .putFloat(mContext.getString(R.string.pref_forecast_volatility), volatility)
+                .commit();
+    }
+
+    private void assertWithinBounds(int syncInterval) {
+        assertTrue("Error: Interval " + syncInterval + "s below the minimum",
+                syncInterval >= SyncScheduler.MIN_SYNC_INTERVAL);
+        assertTrue("Error: Interval " + syncInterval + "s above the maximum",
+                syncInterval <= SyncScheduler.MAX_SYNC_INTERVAL);
+    }
+
+    public void testIdle() {
+        assertEquals("Error: Sync not relaxed without anybody to show the data",
+                SyncScheduler.IDLE_SYNC_INTERVAL, computeSyncInterval());
+
+        // even stale data can wait for the app to be opened
+        mSharedPrefs.edit().putLong(mContext.getString(R.string.pref_last_sync), 0).commit();
+        assertEquals(SyncScheduler.IDLE_SYNC_INTERVAL, computeSyncInterval());
+    }
+
+    public void testStaleData() {
+        setMuzeiEnabled();
+        mSharedPrefs.edit().putLong(mContext.getString(R.string.pref_last_sync),
+                System.currentTimeMillis() - SunshineSyncAdapter.SYNC_INTERVAL * 1000L).commit();
+        assertEquals("Error: Stale data not replaced soon",
+                SyncScheduler.MIN_SYNC_INTERVAL, computeSyncInterval());
+    }
+
+    public void testWearCap() {
+        // a steady forecast would be synced less often than the wearable needs it
+        setVolatility(0);
+        mSharedPrefs.edit().putLong(mContext.getString(R.string.pref_last_wear_seen),
+                System.currentTimeMillis()).commit();
+        int syncInterval = computeSyncInterval();
+        assertWithinBounds(syncInterval);
+        assertTrue("Error: Interval " + syncInterval + "s too long for the wearable",
+                syncInterval <= SyncScheduler.WEAR_SYNC_INTERVAL);
+
+        // a wearable which hasn't been seen for days doesn't count
+        mSharedPrefs.edit().putLong(mContext.getString(R.string.pref_last_wear_seen),
+                System.currentTimeMillis() - 2 * 24 * 60 * 60 * 1000L).commit();
+        assertEquals(SyncScheduler.IDLE_SYNC_INTERVAL, computeSyncInterval());
+    }
+
+    public void testVolatility() {
+        setMuzeiEnabled();
+        setVolatility(0);
+        int steadyInterval = computeSyncInterval();
+        setVolatility(1);
+        int changingInterval = computeSyncInterval();
+
+        assertWithinBounds(steadyInterval);
+        assertWithinBounds(changingInterval);
+        assertTrue("Error: Changing forecast not synced more often",
+                changingInterval < steadyInterval);
+    }
+}
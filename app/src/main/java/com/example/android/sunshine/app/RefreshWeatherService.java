@@ -17,6 +17,7 @@ public class RefreshWeatherService extends WearableListenerService {
     public void onMessageReceived(MessageEvent messageEvent) {
         super.onMessageReceived(messageEvent);
         if (messageEvent.getPath().equals(PATH_MESSAGE)) {
+            Utility.setWearSeen(this);
             SunshineSyncAdapter.syncImmediately(this);
         }
     }
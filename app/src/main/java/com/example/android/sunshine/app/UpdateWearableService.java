@@ -59,6 +59,10 @@ public class UpdateWearableService extends IntentService
         PutDataRequest putDataReq = putDataMapReq.asPutDataRequest();
 
         if (mGoogleApiClient.isConnected()) {
+            // remember a wearable is around, the sync is scheduled so its data never gets stale
+            if (!Wearable.NodeApi.getConnectedNodes(mGoogleApiClient).await().getNodes().isEmpty()) {
+                Utility.setWearSeen(this);
+            }
             Wearable.DataApi.putDataItem(
                     mGoogleApiClient, putDataReq).await();
         } else {
@@ -26,9 +26,14 @@ import android.util.Log;
 
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 
 public class Utility {
@@ -41,6 +46,64 @@ public class Utility {
                 context.getString(R.string.pref_location_default));
     }
 
+    /**
+     * Returns all the locations whose weather is synced: the preferred location first, followed
+     * by the additionally tracked ones.
+     *
+     * @param context Context used to get the SharedPreferences
+     * @return the location settings, without duplicates
+     */
+    public static List<String> getTrackedLocations(Context context) {
+        List<String> locations = new ArrayList<String>();
+        locations.add(getPreferredLocation(context));
+
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String tracked = prefs.getString(context.getString(R.string.pref_tracked_locations_key), null);
+        if (tracked != null) {
+            try {
+                JSONArray trackedArray = new JSONArray(tracked);
+                for (int i = 0; i < trackedArray.length(); i++) {
+                    String location = trackedArray.getString(i);
+                    if (!locations.contains(location)) {
+                        locations.add(location);
+                    }
+                }
+            } catch (JSONException e) {
+                Log.e(TAG, "Invalid tracked locations: " + tracked, e);
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * Stores the locations whose weather is synced in addition to the preferred location.
+     *
+     * @param context Context used to get the SharedPreferences
+     * @param locations the location settings to track
+     */
+    public static void setTrackedLocations(Context context, List<String> locations) {
+        JSONArray trackedArray = new JSONArray();
+        for (String location : locations) {
+            trackedArray.put(location);
+        }
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        prefs.edit()
+                .putString(context.getString(R.string.pref_tracked_locations_key), trackedArray.toString())
+                .apply();
+    }
+
+    /**
+     * Records that a wearable has just been connected.
+     *
+     * @param context Context used to get the SharedPreferences
+     */
+    public static void setWearSeen(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        prefs.edit()
+                .putLong(context.getString(R.string.pref_last_wear_seen), System.currentTimeMillis())
+                .apply();
+    }
+
     public static boolean isMetric(Context context) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         return prefs.getString(context.getString(R.string.pref_units_key),
@@ -0,0 +1,118 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+
+/**
+ * Keeps the history bounded by rolling it up as it ages.  Days are kept for a month, then
+ * rolled up into weeks, which are kept for about half a year and then rolled up into months.
+ * Months are dropped after two years, so a location never has more than about 80 rows.
+ *
+ * Only whole weeks and months are rolled up.  A day archived late, e.g. after a long time
+ * without syncs, is merged into the week which has been rolled up before.  Weeks go to the
+ * month they start in.
+ */
+final class HistoryCompaction {
+
+    private static final String LOG_TAG = HistoryCompaction.class.getSimpleName();
+
+    static final long DAY_RETENTION_MILLIS = 31 * DateUtils.DAY_IN_MILLIS;
+    static final long WEEK_RETENTION_MILLIS = DAY_RETENTION_MILLIS + 26 * DateUtils.WEEK_IN_MILLIS;
+    static final long MONTH_RETENTION_MILLIS = 2 * DateUtils.YEAR_IN_MILLIS;
+
+    // The start of the local week (starting on Monday) and month of a date, in the form of
+    // the normalized dates.  "%s" is replaced by the date.
+    static final String WEEK_START_SQL = "CAST(strftime('%%s', %s / 1000, 'unixepoch', " +
+            "'localtime', 'start of day', '-6 days', 'weekday 1', 'utc') AS INTEGER) * 1000";
+    static final String MONTH_START_SQL = "CAST(strftime('%%s', %s / 1000, 'unixepoch', " +
+            "'localtime', 'start of month', 'utc') AS INTEGER) * 1000";
+
+    private HistoryCompaction() {}
+
+    /**
+     * Rolls up and drops the history which has aged out of its tier, in one transaction.
+     *
+     * @param now the current time in milliseconds
+     * @return the number of rows removed
+     */
+    static int compact(SQLiteDatabase db, long now) {
+        int removed = 0;
+        db.beginTransaction();
+        try {
+            removed += rollUp(db, HistoryEntry.PERIOD_DAY, HistoryEntry.PERIOD_WEEK,
+                    WEEK_START_SQL, now - DAY_RETENTION_MILLIS);
+            removed += rollUp(db, HistoryEntry.PERIOD_WEEK, HistoryEntry.PERIOD_MONTH,
+                    MONTH_START_SQL, now - WEEK_RETENTION_MILLIS);
+            removed += db.delete(HistoryEntry.TABLE_NAME,
+                    HistoryEntry.COLUMN_PERIOD + " = ? AND " + HistoryEntry.COLUMN_DATE + " < ?",
+                    new String[]{Integer.toString(HistoryEntry.PERIOD_MONTH),
+                            Long.toString(now - MONTH_RETENTION_MILLIS)});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        Log.d(LOG_TAG, "Compacted history, " + removed + " rows removed");
+        return removed;
+    }
+
+    /**
+     * Replaces the rows of a period which lie in the buckets of the coarser period ending
+     * before the given date by one row for each bucket.
+     *
+     * @return the number of rows removed
+     */
+    private static int rollUp(SQLiteDatabase db, int fromPeriod, int toPeriod,
+                              String bucketSql, long before) {
+        // the first bucket which is kept, so only whole buckets are rolled up
+        String cutoff = Long.toString(DatabaseUtils.longForQuery(db,
+                "SELECT " + String.format(bucketSql, "?"), new String[]{Long.toString(before)}));
+        String from = Integer.toString(fromPeriod);
+        String to = Integer.toString(toPeriod);
+        String bucket = String.format(bucketSql, HistoryEntry.COLUMN_DATE);
+        String agedOut = HistoryEntry.COLUMN_PERIOD + " = ? AND " +
+                HistoryEntry.COLUMN_DATE + " < ?";
+
+        // A bucket rolled up before is rolled up again along with the rows which came late
+        db.execSQL("INSERT OR REPLACE INTO " + HistoryEntry.TABLE_NAME + " (" +
+                        HistoryEntry.COLUMN_LOC_KEY + ", " +
+                        HistoryEntry.COLUMN_DATE + ", " +
+                        HistoryEntry.COLUMN_PERIOD + ", " +
+                        HistoryEntry.COLUMN_DAY_COUNT + ", " +
+                        HistoryEntry.COLUMN_MIN_TEMP + ", " +
+                        HistoryEntry.COLUMN_MAX_TEMP + ", " +
+                        HistoryEntry.COLUMN_AVG_MIN_TEMP + ", " +
+                        HistoryEntry.COLUMN_AVG_MAX_TEMP + ", " +
+                        HistoryEntry.COLUMN_HUMIDITY + ", " +
+                        HistoryEntry.COLUMN_PRESSURE + ", " +
+                        HistoryEntry.COLUMN_WIND_SPEED + ") " +
+                        "SELECT " + HistoryEntry.COLUMN_LOC_KEY + ", " +
+                        bucket + " AS bucket, " +
+                        to + ", " +
+                        "SUM(" + HistoryEntry.COLUMN_DAY_COUNT + "), " +
+                        "MIN(" + HistoryEntry.COLUMN_MIN_TEMP + "), " +
+                        "MAX(" + HistoryEntry.COLUMN_MAX_TEMP + "), " +
+                        weightedAverage(HistoryEntry.COLUMN_AVG_MIN_TEMP) + ", " +
+                        weightedAverage(HistoryEntry.COLUMN_AVG_MAX_TEMP) + ", " +
+                        weightedAverage(HistoryEntry.COLUMN_HUMIDITY) + ", " +
+                        weightedAverage(HistoryEntry.COLUMN_PRESSURE) + ", " +
+                        weightedAverage(HistoryEntry.COLUMN_WIND_SPEED) +
+                        " FROM " + HistoryEntry.TABLE_NAME +
+                        " WHERE (" + agedOut + ") OR (" +
+                        HistoryEntry.COLUMN_PERIOD + " = ? AND " + HistoryEntry.COLUMN_DATE +
+                        " IN (SELECT " + bucket + " FROM " + HistoryEntry.TABLE_NAME +
+                        " WHERE " + agedOut + "))" +
+                        " GROUP BY " + HistoryEntry.COLUMN_LOC_KEY + ", bucket",
+                new String[]{from, cutoff, to, from, cutoff});
+
+        return db.delete(HistoryEntry.TABLE_NAME, agedOut, new String[]{from, cutoff});
+    }
+
+    private static String weightedAverage(String column) {
+        return "SUM(" + column + " * " + HistoryEntry.COLUMN_DAY_COUNT + ") / SUM(" +
+                HistoryEntry.COLUMN_DAY_COUNT + ")";
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Process wide cache of the ids of the location rows, keyed by their location setting.  The
+ * provider also looks up settings by id through it, to name the locations it has changed.
+ *
+ * The whole location table, which only holds a few rows, is read when the provider is
+ * created, or else on first use.  The {@link WeatherProvider} drops the cache whenever it
+ * notifies a change of the locations, so it is read again the next time it is needed.
+ */
+public class LocationIdCache {
+
+    private static final String[] LOCATION_ID_PROJECTION = new String[] {
+            LocationEntry._ID,
+            LocationEntry.COLUMN_LOCATION_SETTING
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_LOCATION_ID = 0;
+    private static final int INDEX_LOCATION_SETTING = 1;
+
+    // The location table both ways, read together
+    private static class Locations {
+        final Map<String, Long> mIds = new HashMap<String, Long>();
+        final Map<Long, String> mSettings = new HashMap<Long, String>();
+    }
+
+    // null until the table has been read
+    private static Locations sLocations;
+    // Incremented by every change, so a read which overlaps one isn't kept
+    private static int sGeneration;
+
+    private LocationIdCache() {}
+
+    /**
+     * Looks up a location through the content provider, if it isn't cached.
+     *
+     * @return the id of the location row, or -1 if the location isn't stored
+     */
+    public static long getLocationId(ContentResolver resolver, String locationSetting) {
+        Locations locations = getCached();
+        if (locations == null) {
+            int generation = getGeneration();
+            locations = fill(resolver.query(LocationEntry.CONTENT_URI,
+                    LOCATION_ID_PROJECTION, null, null, null), generation);
+        }
+        return lookup(locations, locationSetting);
+    }
+
+    /**
+     * Looks up a location in the database, if it isn't cached.  For the provider itself.
+     */
+    static long getLocationId(SQLiteDatabase db, String locationSetting) {
+        return lookup(getLocations(db), locationSetting);
+    }
+
+    /**
+     * Looks up the setting of a location row in the database, if it isn't cached.  For the
+     * provider itself.
+     *
+     * @return the location setting, or null if there is no such location row
+     */
+    static String getLocationSetting(SQLiteDatabase db, long locationId) {
+        return getLocations(db).mSettings.get(locationId);
+    }
+
+    /**
+     * Reads the location table ahead of the first lookup, unless it is cached already.  For
+     * the provider itself, once it has been created.
+     */
+    static void warm(SQLiteDatabase db) {
+        getLocations(db);
+    }
+
+    /**
+     * Drops the cache after the location table has been changed.
+     */
+    static synchronized void invalidate() {
+        sLocations = null;
+        sGeneration++;
+    }
+
+    private static Locations getLocations(SQLiteDatabase db) {
+        Locations locations = getCached();
+        if (locations == null) {
+            int generation = getGeneration();
+            locations = fill(db.query(LocationEntry.TABLE_NAME,
+                    LOCATION_ID_PROJECTION, null, null, null, null, null), generation);
+        }
+        return locations;
+    }
+
+    private static synchronized Locations getCached() {
+        return sLocations;
+    }
+
+    private static synchronized int getGeneration() {
+        return sGeneration;
+    }
+
+    /**
+     * Reads the ids from the cursor and keeps them, unless the table has been changed since
+     * the given generation.  The database isn't read while holding the lock, as the thread
+     * changing the table holds the database while it invalidates the cache.
+     */
+    private static Locations fill(Cursor cursor, int generation) {
+        Locations locations = new Locations();
+        if (cursor == null) {
+            return locations;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                String locationSetting = cursor.getString(INDEX_LOCATION_SETTING);
+                long locationId = cursor.getLong(INDEX_LOCATION_ID);
+                locations.mIds.put(locationSetting, locationId);
+                locations.mSettings.put(locationId, locationSetting);
+            }
+        } finally {
+            cursor.close();
+        }
+        synchronized (LocationIdCache.class) {
+            if (generation == sGeneration) {
+                sLocations = locations;
+            }
+        }
+        return locations;
+    }
+
+    private static long lookup(Locations locations, String locationSetting) {
+        Long locationId = locations.mIds.get(locationSetting);
+        return locationId != null ? locationId : -1;
+    }
+}
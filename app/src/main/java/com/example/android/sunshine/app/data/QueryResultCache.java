@@ -0,0 +1,175 @@
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Build;
+import android.support.v4.util.LruCache;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bounded in-memory copy of recent query results, served as in-memory cursors.
+ *
+ * Every result belongs to a location.  After a change has been committed the provider drops
+ * the results of the locations it touched, or all of them if it can't tell.  A result read
+ * while a change was being committed is never kept, as it may predate the change:
+ * {@link #put} only keeps it if neither its location nor the whole cache has been invalidated
+ * since the generation read before the query.
+ *
+ * Copying needs {@link Cursor#getType}, so there's no caching before Honeycomb.
+ */
+class QueryResultCache {
+
+    private final LruCache<String, CachedResult> mResults;
+    private int mGeneration;
+    // Invalidations of single locations, by location setting
+    private final Map<String, Integer> mLocationGenerations = new HashMap<String, Integer>();
+
+    /**
+     * @param maxRows the number of rows kept over all results
+     */
+    QueryResultCache(int maxRows) {
+        mResults = new LruCache<String, CachedResult>(maxRows) {
+            @Override
+            protected int sizeOf(String key, CachedResult result) {
+                return result.mRows.length + 1;
+            }
+        };
+    }
+
+    /**
+     * @return the key of a query's result, which starts with the location it belongs to
+     */
+    static String buildKey(String locationSetting, Uri uri, String[] projection,
+                           String sortOrder) {
+        return locationSetting + '\0' + uri.toString() + '\0' + Arrays.toString(projection)
+                + '\0' + sortOrder;
+    }
+
+    /**
+     * @return a new cursor over the cached result, or null if there is none
+     */
+    Cursor get(String key) {
+        CachedResult result = mResults.get(key);
+        return result != null ? result.newCursor() : null;
+    }
+
+    /**
+     * @return the generation of the results of the location, which changes with every
+     * invalidation of the location or of the whole cache
+     */
+    synchronized int getGeneration(String locationSetting) {
+        Integer locationGeneration = mLocationGenerations.get(locationSetting);
+        // both only ever grow, so their sum changes whenever either of them does
+        return mGeneration + (locationGeneration != null ? locationGeneration : 0);
+    }
+
+    /**
+     * Keeps the result of a query, unless the cache has been invalidated since it started.
+     * The cursor is consumed.
+     *
+     * @param generation the generation of the location before the query started
+     * @return a cursor over the same result
+     */
+    Cursor put(String key, String locationSetting, int generation, Cursor cursor) {
+        if (cursor == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return cursor;
+        }
+        CachedResult result = copy(cursor);
+        synchronized (this) {
+            if (generation == getGeneration(locationSetting)) {
+                mResults.put(key, result);
+            }
+        }
+        return result.newCursor();
+    }
+
+    /**
+     * Drops all results.  Must be called after a change has been committed.
+     */
+    synchronized void invalidate() {
+        // the generations of the locations are kept, clearing them would take the sums back
+        mGeneration++;
+        mResults.evictAll();
+    }
+
+    /**
+     * Drops the results of a location.  Must be called after a change has been committed.
+     */
+    synchronized void invalidate(String locationSetting) {
+        Integer locationGeneration = mLocationGenerations.get(locationSetting);
+        mLocationGenerations.put(locationSetting,
+                locationGeneration != null ? locationGeneration + 1 : 1);
+        String prefix = locationSetting + '\0';
+        for (String key : mResults.snapshot().keySet()) {
+            if (key.startsWith(prefix)) {
+                mResults.remove(key);
+            }
+        }
+    }
+
+    int getHitCount() {
+        return mResults.hitCount();
+    }
+
+    int getMissCount() {
+        return mResults.missCount();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static CachedResult copy(Cursor cursor) {
+        try {
+            String[] columnNames = cursor.getColumnNames();
+            Object[][] rows = new Object[cursor.getCount()][];
+            int row = 0;
+            while (cursor.moveToNext()) {
+                Object[] values = new Object[columnNames.length];
+                for (int column = 0; column < columnNames.length; column++) {
+                    switch (cursor.getType(column)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            values[column] = cursor.getLong(column);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            values[column] = cursor.getDouble(column);
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            values[column] = cursor.getString(column);
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            values[column] = cursor.getBlob(column);
+                            break;
+                        default:
+                            values[column] = null;
+                            break;
+                    }
+                }
+                rows[row++] = values;
+            }
+            return new CachedResult(columnNames, rows);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static class CachedResult {
+        final String[] mColumnNames;
+        final Object[][] mRows;
+
+        CachedResult(String[] columnNames, Object[][] rows) {
+            mColumnNames = columnNames;
+            mRows = rows;
+        }
+
+        Cursor newCursor() {
+            MatrixCursor cursor = new MatrixCursor(mColumnNames, mRows.length);
+            for (Object[] row : mRows) {
+                cursor.addRow(row);
+            }
+            return cursor;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Opt-in timings of the queries, updates and deletes of the provider, by the shape of their URI.
+ *
+ * While turned on, the wall time and the rows of every call are summed up by shape, and the
+ * last {@link #CAPACITY} calls which took longer than the threshold are kept along with the
+ * plan SQLite chose for them, so scans can be spotted without a profiler.  They are logged as
+ * well.  See {@link WeatherProvider#dump} for turning it on and reading it.
+ *
+ * The provider hands over the SQL of a call on the calling thread, before running it.  Calls
+ * served from the cached results, and the compaction of the history, have no plan.
+ */
+class SlowQueryLog {
+
+    private static final String LOG_TAG = SlowQueryLog.class.getSimpleName();
+
+    static final int CAPACITY = 20;
+
+    // Turned off while negative
+    private volatile long mThresholdNanos = -1;
+
+    private final ThreadLocal<Statement> mStatement = new ThreadLocal<Statement>();
+
+    // Totals of each operation and URI shape, e.g. "query weather/*/#"
+    private final Map<String, Totals> mTotals = new TreeMap<String, Totals>();
+
+    // Ring buffer of the slow calls, mNext is the slot the next one goes to
+    private final SlowCall[] mSlowCalls = new SlowCall[CAPACITY];
+    private int mNext;
+
+    private static class Statement {
+        final String mSql;
+        final String[] mArgs;
+
+        Statement(String sql, String[] args) {
+            mSql = sql;
+            mArgs = args;
+        }
+    }
+
+    private static class Totals {
+        int mCount;
+        long mNanos;
+        long mMaxNanos;
+        long mRows;
+    }
+
+    private static class SlowCall {
+        final long mAt = System.currentTimeMillis();
+        final String mName;
+        final long mNanos;
+        final int mRows;
+        final String mPlan;
+
+        SlowCall(String name, long nanos, int rows, String plan) {
+            mName = name;
+            mNanos = nanos;
+            mRows = rows;
+            mPlan = plan;
+        }
+    }
+
+    boolean isEnabled() {
+        return mThresholdNanos >= 0;
+    }
+
+    /**
+     * Turns the log on for calls slower than the given time, or off for a negative one.
+     * Turning it on again starts over.
+     */
+    void setThresholdMillis(long millis) {
+        synchronized (this) {
+            mTotals.clear();
+            for (int i = 0; i < CAPACITY; i++) {
+                mSlowCalls[i] = null;
+            }
+            mNext = 0;
+        }
+        mThresholdNanos = millis >= 0 ? millis * 1000000 : -1;
+    }
+
+    long getThresholdMillis() {
+        long thresholdNanos = mThresholdNanos;
+        return thresholdNanos >= 0 ? thresholdNanos / 1000000 : -1;
+    }
+
+    /**
+     * Starts timing a call on this thread.
+     *
+     * @return the start of the call, to be passed to {@link #record}
+     */
+    long start() {
+        if (isEnabled()) {
+            mStatement.remove();
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Keeps the SQL the current call runs on this thread, for its plan.
+     */
+    void setStatement(String sql, String[] args) {
+        if (isEnabled()) {
+            mStatement.set(new Statement(sql, args));
+        }
+    }
+
+    /**
+     * Keeps a query of the rows an update or delete of the table changes, which SQLite finds
+     * the same way.
+     */
+    void setRowsStatement(String table, String selection, String[] args) {
+        if (isEnabled() && table != null) {
+            setStatement("SELECT rowid FROM " + table +
+                    (TextUtils.isEmpty(selection) ? "" : " WHERE " + selection), args);
+        }
+    }
+
+    /**
+     * Records a finished call, and its plan if it has been slow.
+     *
+     * @param db the database to explain the SQL of the call on
+     * @param name the operation and the shape of the URI of the call
+     * @param startNanos the start of the call, see {@link #start}
+     * @param rows the rows the call returned or changed
+     */
+    void record(SQLiteDatabase db, String name, long startNanos, int rows) {
+        long thresholdNanos = mThresholdNanos;
+        if (thresholdNanos < 0) {
+            return;
+        }
+        long nanos = System.nanoTime() - startNanos;
+        Statement statement = mStatement.get();
+        mStatement.remove();
+
+        synchronized (this) {
+            Totals totals = mTotals.get(name);
+            if (totals == null) {
+                totals = new Totals();
+                mTotals.put(name, totals);
+            }
+            totals.mCount++;
+            totals.mNanos += nanos;
+            totals.mMaxNanos = Math.max(totals.mMaxNanos, nanos);
+            totals.mRows += rows;
+        }
+        if (nanos < thresholdNanos) {
+            return;
+        }
+
+        String plan = statement != null
+                ? explain(db, statement.mSql, statement.mArgs)
+                : "    (no plan: served from the cache, or not a single statement)";
+        Log.w(LOG_TAG, String.format(Locale.US, "Slow %s: %.1fms, %d rows\n%s",
+                name, nanos / 1000000.0, rows, plan));
+        synchronized (this) {
+            mSlowCalls[mNext] = new SlowCall(name, nanos, rows, plan);
+            mNext = (mNext + 1) % CAPACITY;
+        }
+    }
+
+    /**
+     * @return the lines of the query plan of the SQL, indented
+     */
+    static String explain(SQLiteDatabase db, String sql, String[] args) {
+        List<String> lines = new ArrayList<String>();
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+            int detailIndex = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                lines.add("    " + cursor.getString(detailIndex));
+            }
+        } catch (SQLException e) {
+            lines.add("    (no plan: " + e.getMessage() + ")");
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        lines.add("    " + sql);
+        return TextUtils.join("\n", lines);
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format(Locale.US, "%8.1fms", nanos / 1000000.0);
+    }
+
+    /**
+     * Prints the totals by shape and the kept slow calls, the oldest first.
+     */
+    synchronized void dump(PrintWriter writer) {
+        long thresholdMillis = getThresholdMillis();
+        if (thresholdMillis < 0) {
+            writer.println("Slow query log: off");
+            return;
+        }
+        writer.println("Slow query log: calls over " + thresholdMillis + "ms");
+        for (Map.Entry<String, Totals> entry : mTotals.entrySet()) {
+            Totals totals = entry.getValue();
+            writer.println(String.format(Locale.US, "%6d calls  avg %s  max %s  %8d rows  %s",
+                    totals.mCount, formatMillis(totals.mNanos / totals.mCount),
+                    formatMillis(totals.mMaxNanos), totals.mRows, entry.getKey()));
+        }
+
+        writer.println("Last " + CAPACITY + " slow calls:");
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+        for (int i = 0; i < CAPACITY; i++) {
+            SlowCall call = mSlowCalls[(mNext + i) % CAPACITY];
+            if (call != null) {
+                writer.println(dateFormat.format(new Date(call.mAt)) + "  " +
+                        formatMillis(call.mNanos) + "  " + call.mRows + " rows  " + call.mName);
+                writer.println(call.mPlan);
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.android.sunshine.app.data;
+
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Cache of the offsets of the default time zone from UTC, so dates can be normalized with
+ * plain arithmetic instead of a {@link android.text.format.Time} for each of them.
+ *
+ * Offsets only change at the transitions of a zone, which lie on quarter hours in all zones in
+ * use.  The offset of each quarter hour is kept in a direct-mapped table covering three weeks,
+ * so the dates of a forecast stay in it.  The table is dropped when the time zone changes,
+ * see {@link TimeZoneChangedReceiver}.
+ */
+final class UtcOffsets {
+
+    private static final long SLOT_MILLIS = 15 * 60 * 1000;
+    private static final int TABLE_SIZE = 2048;
+
+    // Each entry packs the slot plus one (0 for none) in the upper and the offset in the
+    // lower 32 bits, so it is read and written atomically
+    private static final AtomicLongArray sTable = new AtomicLongArray(TABLE_SIZE);
+    private static volatile TimeZone sTimeZone;
+
+    private UtcOffsets() {}
+
+    /**
+     * @return the offset of the default time zone from UTC at the given time, in milliseconds
+     */
+    static int getOffset(long millis) {
+        long slot = millis >= 0 ? millis / SLOT_MILLIS : (millis + 1) / SLOT_MILLIS - 1;
+        int index = (int) (slot & (TABLE_SIZE - 1));
+        long entry = sTable.get(index);
+        if ((entry >>> 32) == slot + 1) {
+            return (int) entry;
+        }
+
+        TimeZone timeZone = sTimeZone;
+        if (timeZone == null) {
+            timeZone = TimeZone.getDefault();
+            sTimeZone = timeZone;
+        }
+        int offset = timeZone.getOffset(slot * SLOT_MILLIS);
+        sTable.set(index, ((slot + 1) << 32) | (offset & 0xffffffffL));
+        return offset;
+    }
+
+    /**
+     * Drops the offsets after the default time zone has changed.  A lookup running at the same
+     * time may still store an offset of the old zone, which only affects its quarter hour.
+     */
+    static void reset() {
+        sTimeZone = null;
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            sTable.set(i, 0);
+        }
+    }
+}
@@ -19,7 +19,7 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
+import android.text.format.DateUtils;
 
 /**
  * Defines table and column names for the weather database.
@@ -43,15 +43,34 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_STATS = "stats";
+    public static final String PATH_HISTORY = "history";
+    public static final String PATH_HISTORY_COMPACTION = "history_compaction";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
-    // the database to the start of the the Julian day at UTC.
+    // the database to the start of their local day.
     public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        return getStartOfDay(getDay(startDate));
+    }
+
+    /**
+     * @return the local day of the date, as the number of days since the epoch
+     */
+    public static int getDay(long date) {
+        long localDate = date + UtcOffsets.getOffset(date);
+        long day = localDate / DateUtils.DAY_IN_MILLIS;
+        // round towards the past for dates before the epoch as well
+        return (int) (localDate < 0 && localDate % DateUtils.DAY_IN_MILLIS != 0 ? day - 1 : day);
+    }
+
+    /**
+     * @return the start of a local day, in milliseconds since the epoch
+     */
+    public static long getStartOfDay(int day) {
+        long localMidnight = day * DateUtils.DAY_IN_MILLIS;
+        // the offset of the day's start, which may differ from the one a day later
+        long start = localMidnight - UtcOffsets.getOffset(localMidnight);
+        return localMidnight - UtcOffsets.getOffset(start);
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -103,6 +122,9 @@ public class WeatherContract {
         public static final String COLUMN_LOC_KEY = "location_id";
         // Date, stored as long in milliseconds since the epoch
         public static final String COLUMN_DATE = "date";
+        // Local day of the date, stored as the number of days since the epoch.  Set by the
+        // provider from the date, and what the days are compared and looked up by.
+        public static final String COLUMN_DAY = "day";
         // Weather id as returned by API, to identify the icon to be used
         public static final String COLUMN_WEATHER_ID = "weather_id";
 
@@ -126,6 +148,28 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Statistics over the days of a location, as a single row.  The range of days is given
+        // by the query parameters, both ends included.
+        public static final String PARAM_FROM = "from";
+        public static final String PARAM_TO = "to";
+
+        // The number of days in the range
+        public static final String STATS_DAY_COUNT = "day_count";
+        // Lowest min and highest max temperature
+        public static final String STATS_LOWEST_MIN_TEMP = "lowest_min";
+        public static final String STATS_HIGHEST_MAX_TEMP = "highest_max";
+        // Averages over the days
+        public static final String STATS_AVG_MIN_TEMP = "avg_min";
+        public static final String STATS_AVG_MAX_TEMP = "avg_max";
+        public static final String STATS_AVG_HUMIDITY = "avg_humidity";
+        public static final String STATS_AVG_PRESSURE = "avg_pressure";
+        public static final String STATS_AVG_WIND_SPEED = "avg_wind";
+
+        // Paging of the days of a location: at most PARAM_LIMIT rows, starting after the date in
+        // PARAM_AFTER.  Pages are in ascending order of the dates unless sorted otherwise.
+        public static final String PARAM_LIMIT = "limit";
+        public static final String PARAM_AFTER = "after";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -144,19 +188,89 @@ public class WeatherContract {
                     .appendQueryParameter(COLUMN_DATE, Long.toString(normalizedDate)).build();
         }
 
+        /**
+         * @return the URI of the first days of a location from the start date on
+         */
+        public static Uri buildWeatherLocationWithStartDate(
+                String locationSetting, long startDate, int limit) {
+            return buildWeatherLocationWithStartDate(locationSetting, startDate).buildUpon()
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
+        /**
+         * @return the URI of the page of days of a location which follows the given date, which
+         * is the date of the last row of the previous page
+         */
+        public static Uri buildWeatherLocationAfterDate(
+                String locationSetting, long date, int limit) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_AFTER, Long.toString(normalizeDate(date)))
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
         public static Uri buildWeatherLocationWithDate(String locationSetting, long date) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting)
                     .appendPath(Long.toString(normalizeDate(date))).build();
         }
 
+        public static Uri buildWeatherStats(String locationSetting, long fromDate, long toDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).appendPath(PATH_STATS)
+                    .appendQueryParameter(PARAM_FROM, Long.toString(normalizeDate(fromDate)))
+                    .appendQueryParameter(PARAM_TO, Long.toString(normalizeDate(toDate))).build();
+        }
+
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
 
+        /**
+         * @return the first day of the statistics, or 0 if they are unbounded
+         */
+        public static long getFromDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_FROM);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return 0;
+        }
+
+        /**
+         * @return the last day of the statistics, or Long.MAX_VALUE if they are unbounded
+         */
+        public static long getToDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_TO);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return Long.MAX_VALUE;
+        }
+
         public static long getDateFromUri(Uri uri) {
             return Long.parseLong(uri.getPathSegments().get(2));
         }
 
+        /**
+         * @return the date the page starts after, or 0 if it starts at the first day
+         */
+        public static long getAfterDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_AFTER);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return 0;
+        }
+
+        /**
+         * @return the maximum number of rows, or 0 if there is no limit
+         */
+        public static int getLimitFromUri(Uri uri) {
+            String limitString = uri.getQueryParameter(PARAM_LIMIT);
+            if (null != limitString && limitString.length() > 0)
+                return Integer.parseInt(limitString);
+            else
+                return 0;
+        }
+
         public static long getStartDateFromUri(Uri uri) {
             String dateString = uri.getQueryParameter(COLUMN_DATE);
             if (null != dateString && dateString.length() > 0)
@@ -165,4 +279,75 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /* Inner class that defines the table contents of the history table */
+    public static final class HistoryEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HISTORY).build();
+
+        // Updating this URI rolls up and drops the history which has aged out of its tier
+        public static final Uri COMPACTION_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HISTORY_COMPACTION).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        public static final String TABLE_NAME = "history";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Start of the period, stored as long in milliseconds since the epoch
+        public static final String COLUMN_DATE = "date";
+        // One of the PERIOD_ constants
+        public static final String COLUMN_PERIOD = "period";
+        // The number of days the row sums up
+        public static final String COLUMN_DAY_COUNT = "day_count";
+
+        // Weather id of the day, null for weeks and months
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+
+        // Lowest min and highest max temperature of the period
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+        // Average min and max temperature of the days of the period
+        public static final String COLUMN_AVG_MIN_TEMP = "avg_min";
+        public static final String COLUMN_AVG_MAX_TEMP = "avg_max";
+
+        // Averages over the days of the period, in the units of the weather table
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+
+        // A single day, as last forecast before it passed.  Kept for a month.
+        public static final int PERIOD_DAY = 0;
+        // A week starting on Monday, rolled up from days.  Kept for half a year.
+        public static final int PERIOD_WEEK = 1;
+        // A calendar month, rolled up from the weeks starting in it.  Kept for two years.
+        public static final int PERIOD_MONTH = 2;
+
+        public static Uri buildHistoryLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildHistoryLocationWithPeriod(String locationSetting, int period) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_PERIOD, Integer.toString(period)).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        /**
+         * @return the period the URI is restricted to, or -1 for all of them
+         */
+        public static int getPeriodFromUri(Uri uri) {
+            String periodString = uri.getQueryParameter(COLUMN_PERIOD);
+            if (null != periodString && periodString.length() > 0)
+                return Integer.parseInt(periodString);
+            else
+                return -1;
+        }
+    }
 }
@@ -0,0 +1,101 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * The steps which upgrade the weather database from one version to the next one while keeping
+ * the stored locations and forecasts, so an app update doesn't leave the user with an empty
+ * list until the next sync.
+ *
+ * Each step only knows the schema of the version it starts from.  When the schema changes,
+ * increment {@link WeatherDbHelper#DATABASE_VERSION} and add a step for the new version to
+ * {@link #migrate}.
+ */
+final class WeatherDbMigrations {
+
+    private static final String LOG_TAG = WeatherDbMigrations.class.getSimpleName();
+
+    // Older databases predate the migrations, their data is dropped
+    static final int FIRST_MIGRATABLE_VERSION = 2;
+
+    private WeatherDbMigrations() {}
+
+    /**
+     * @return true if a database of the given version can be upgraded without losing its data
+     */
+    static boolean canMigrate(int oldVersion) {
+        return oldVersion >= FIRST_MIGRATABLE_VERSION;
+    }
+
+    /**
+     * Applies the steps from oldVersion up to newVersion in order.  Called within the upgrade
+     * transaction, so either all of them are applied or none is.
+     */
+    static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            Log.d(LOG_TAG, "Migrating weather database to version " + version);
+            switch (version) {
+                case 3:
+                    migrateTo3(db);
+                    break;
+                case 4:
+                    migrateTo4(db);
+                    break;
+                case 5:
+                    migrateTo5(db);
+                    break;
+                default:
+                    throw new IllegalStateException("No migration to version " + version);
+            }
+        }
+    }
+
+    // The steps use the names of their time rather than the ones of the contract, which may
+    // change later on.
+
+    /**
+     * Version 3 adds the index of the weather rows by location and date.
+     */
+    static void migrateTo3(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS weather_location_date ON weather (location_id, date);");
+    }
+
+    /**
+     * Version 4 adds the history of the days which have passed.  Days deleted before are lost.
+     */
+    static void migrateTo4(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE history (_id INTEGER PRIMARY KEY,location_id INTEGER NOT NULL, " +
+                "date INTEGER NOT NULL, period INTEGER NOT NULL, day_count INTEGER NOT NULL, " +
+                "weather_id INTEGER, min REAL NOT NULL, max REAL NOT NULL, " +
+                "avg_min REAL NOT NULL, avg_max REAL NOT NULL, humidity REAL NOT NULL, " +
+                "pressure REAL NOT NULL, wind REAL NOT NULL, " +
+                " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                " UNIQUE (location_id, date, period) ON CONFLICT REPLACE);");
+    }
+
+    /**
+     * Version 5 adds the local day of each weather row and makes it part of the unique key in
+     * place of the date.  SQLite can't change the constraints of a table, so the table is
+     * copied.  The days are computed in the time zone of the device, like the dates were.
+     * The rows of a location are now selected by day, so the index of the weather by location
+     * and date, which goes with the old table, is replaced by one by location and day.
+     */
+    static void migrateTo5(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE weather_new (_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "location_id INTEGER NOT NULL, date INTEGER NOT NULL, day INTEGER NOT NULL, " +
+                "short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL," +
+                "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, " +
+                "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, " +
+                " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                " UNIQUE (day, location_id) ON CONFLICT REPLACE);");
+        db.execSQL("INSERT INTO weather_new (_id, location_id, date, day, short_desc, " +
+                "weather_id, min, max, humidity, pressure, wind, degrees) " +
+                "SELECT _id, location_id, date, " +
+                "CAST(strftime('%s', date / 1000, 'unixepoch', 'localtime') AS INTEGER) / 86400, " +
+                "short_desc, weather_id, min, max, humidity, pressure, wind, degrees FROM weather;");
+        db.execSQL("DROP TABLE weather;");
+        db.execSQL("ALTER TABLE weather_new RENAME TO weather;");
+        db.execSQL("CREATE INDEX weather_location_day ON weather (location_id, day);");
+    }
+}
@@ -17,97 +17,435 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Process;
+import android.preference.PreferenceManager;
+import android.support.v4.util.LruCache;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class WeatherProvider extends ContentProvider {
 
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
+
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    // The URIs changed by the batch currently applied on a thread, if any
+    private final ThreadLocal<Set<Uri>> mBatchChangedUris = new ThreadLocal<Set<Uri>>();
+
+    // The weather statements compiled for the batch currently applied on a thread, once it has
+    // written a day
+    private final ThreadLocal<WeatherStatements> mBatchWeatherStatements =
+            new ThreadLocal<WeatherStatements>();
+
+    // Results of the forecast queries, which the list, the detail pane, the widgets, Muzei and
+    // the notification keep reading.  Dropped by the changes of their location.
+    private final QueryResultCache mForecastCache = new QueryResultCache(FORECAST_CACHE_ROWS);
+    private static final int FORECAST_CACHE_ROWS = 500;
+
+    // Off unless turned on through dump
+    private final SlowQueryLog mSlowQueryLog = new SlowQueryLog();
+
+    // Pass this to dumpsys with a threshold in milliseconds, or "off"
+    private static final String ARG_SLOW_QUERIES = "--slow-queries";
+
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_STATS = 103;
     static final int LOCATION = 300;
+    static final int HISTORY = 400;
+    static final int HISTORY_WITH_LOCATION = 401;
+    static final int HISTORY_COMPACTION = 402;
+
+    //This is an inner join which looks like
+    //weather INNER JOIN location ON weather.location_id = location._id
+    private static final String sWeatherByLocationSettingTables =
+            WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
+                    WeatherContract.LocationEntry.TABLE_NAME +
+                    " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
+                    " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry._ID;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    //history INNER JOIN location ON history.location_id = location._id
+    private static final String sHistoryByLocationSettingTables =
+            WeatherContract.HistoryEntry.TABLE_NAME + " INNER JOIN " +
+                    WeatherContract.LocationEntry.TABLE_NAME +
+                    " ON " + WeatherContract.HistoryEntry.TABLE_NAME +
+                    "." + WeatherContract.HistoryEntry.COLUMN_LOC_KEY +
+                    " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry._ID;
+
+    // The SQL of the weather by location queries, by their projection, selection and sort
+    // order.  Always handing SQLite the same string lets it reuse the compiled statement.
+    private final LruCache<String, String> mWeatherByLocationSqlCache =
+            new LruCache<String, String>(32);
+
+    // The columns of a complete weather row, in the order they are bound to the insert
+    private static final String[] WEATHER_INSERT_COLUMNS = new String[] {
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_DAY,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    // The columns of WEATHER_INSERT_COLUMNS naming the row of a day
+    private static final String[] WEATHER_KEY_COLUMNS = new String[] {
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DAY
+    };
+
+    //INSERT OR IGNORE INTO weather (location_id, date, ...) VALUES (?, ?, ...)
+    private static final String sWeatherInsertSql;
+
+    //UPDATE weather SET date = ?2, ... WHERE location_id = ?1 AND day = ?3
+    //  AND (date IS NOT ?2 OR ...)
+    private static final String sWeatherUpdateSql;
 
     static{
-        sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
-        
-        //This is an inner join which looks like
-        //weather INNER JOIN location ON weather.location_id = location._id
-        sWeatherByLocationSettingQueryBuilder.setTables(
-                WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
-                        WeatherContract.LocationEntry.TABLE_NAME +
-                        " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
-                        "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
-                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
-                        "." + WeatherContract.LocationEntry._ID);
+        StringBuilder placeholders = new StringBuilder("?");
+        for (int i = 1; i < WEATHER_INSERT_COLUMNS.length; i++) {
+            placeholders.append(", ?");
+        }
+        // the days which exist already are left to the update
+        sWeatherInsertSql = "INSERT OR IGNORE INTO " + WeatherContract.WeatherEntry.TABLE_NAME +
+                " (" + TextUtils.join(", ", WEATHER_INSERT_COLUMNS) + ") VALUES (" +
+                placeholders + ")";
+
+        // Numbered parameters, so the update binds the values in the order of the insert
+        List<String> assignments = new ArrayList<String>();
+        List<String> keys = new ArrayList<String>();
+        List<String> changes = new ArrayList<String>();
+        for (int i = 0; i < WEATHER_INSERT_COLUMNS.length; i++) {
+            String column = WEATHER_INSERT_COLUMNS[i];
+            if (Arrays.asList(WEATHER_KEY_COLUMNS).contains(column)) {
+                keys.add(column + " = ?" + (i + 1));
+            } else {
+                assignments.add(column + " = ?" + (i + 1));
+                changes.add(column + " IS NOT ?" + (i + 1));
+            }
+        }
+        sWeatherUpdateSql = "UPDATE " + WeatherContract.WeatherEntry.TABLE_NAME +
+                " SET " + TextUtils.join(", ", assignments) +
+                " WHERE " + TextUtils.join(" AND ", keys) +
+                " AND (" + TextUtils.join(" OR ", changes) + ")";
+    }
+
+    /**
+     * The compiled statements {@link #upsertWeather} binds complete weather rows to.
+     */
+    private static class WeatherStatements {
+        final SQLiteStatement mUpdate;
+        final SQLiteStatement mInsert;
+
+        WeatherStatements(SQLiteDatabase db) {
+            mUpdate = db.compileStatement(sWeatherUpdateSql);
+            try {
+                mInsert = db.compileStatement(sWeatherInsertSql);
+            } catch (RuntimeException e) {
+                mUpdate.close();
+                throw e;
+            }
+        }
+
+        void close() {
+            mUpdate.close();
+            mInsert.close();
+        }
     }
 
+    // The outcomes of writing a day of weather, see upsertWeather
+    private static final int WEATHER_FAILED = -1;
+    private static final int WEATHER_UNCHANGED = 0;
+    private static final int WEATHER_UPDATED = 1;
+    private static final int WEATHER_INSERTED = 2;
+
+    // The columns naming the URI a change of a weather row is notified on
+    private static final String[] WEATHER_CHANGE_COLUMNS = new String[] {
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE
+    };
+
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
-    //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    //location.location_setting = ? AND day >= ?
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
-                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
+                    WeatherContract.WeatherEntry.COLUMN_DAY + " >= ? ";
+
+    //location.location_setting = ? AND day = ?
+    static final String sLocationSettingAndDaySelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DAY + " = ? ";
 
-    //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    //location.location_setting = ? AND period = ?
+    static final String sLocationSettingAndPeriodSelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
-                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
+                    WeatherContract.HistoryEntry.COLUMN_PERIOD + " = ? ";
+
+    //location.location_setting = ? AND day >= ? AND day <= ?
+    static final String sLocationSettingWithDateRangeSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DAY + " >= ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DAY + " <= ? ";
+
+    // The same selections by the location id, for locations whose id is cached
+
+    //weather.location_id = ?
+    static final String sLocationIdSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ";
+
+    //weather.location_id = ? AND day >= ?
+    static final String sLocationIdWithStartDateSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DAY + " >= ? ";
+
+    //weather.location_id = ? AND day = ?
+    static final String sLocationIdAndDaySelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DAY + " = ? ";
+
+    //weather.location_id = ? AND day >= ? AND day <= ?
+    static final String sLocationIdWithDateRangeSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DAY + " >= ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DAY + " <= ? ";
+
+    // The aggregates of the statistics, by their column names
+    private static final Map<String, String> sStatsColumns = new LinkedHashMap<String, String>();
+
+    static{
+        String weather = WeatherContract.WeatherEntry.TABLE_NAME + ".";
+        sStatsColumns.put(WeatherContract.WeatherEntry.STATS_DAY_COUNT, "COUNT(*)");
+        sStatsColumns.put(WeatherContract.WeatherEntry.STATS_LOWEST_MIN_TEMP,
+                "MIN(" + weather + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ")");
+        sStatsColumns.put(WeatherContract.WeatherEntry.STATS_HIGHEST_MAX_TEMP,
+                "MAX(" + weather + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ")");
+        sStatsColumns.put(WeatherContract.WeatherEntry.STATS_AVG_MIN_TEMP,
+                "AVG(" + weather + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ")");
+        sStatsColumns.put(WeatherContract.WeatherEntry.STATS_AVG_MAX_TEMP,
+                "AVG(" + weather + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ")");
+        sStatsColumns.put(WeatherContract.WeatherEntry.STATS_AVG_HUMIDITY,
+                "AVG(" + weather + WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ")");
+        sStatsColumns.put(WeatherContract.WeatherEntry.STATS_AVG_PRESSURE,
+                "AVG(" + weather + WeatherContract.WeatherEntry.COLUMN_PRESSURE + ")");
+        sStatsColumns.put(WeatherContract.WeatherEntry.STATS_AVG_WIND_SPEED,
+                "AVG(" + weather + WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ")");
+    }
 
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        long afterDate = WeatherContract.WeatherEntry.getAfterDateFromUri(uri);
+        String limit = getLimit(uri);
+        // the first day, or none for all of them
+        Integer startDay = startDate != 0 ? WeatherContract.getDay(startDate) : null;
+        if (afterDate != 0) {
+            int afterDay = WeatherContract.getDay(afterDate) + 1;
+            startDay = startDay != null ? Math.max(startDay, afterDay) : afterDay;
+        }
+        if ((limit != null || afterDate != 0) && sortOrder == null) {
+            sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+        }
 
         String[] selectionArgs;
         String selection;
 
-        if (startDate == 0) {
-            selection = sLocationSettingSelection;
-            selectionArgs = new String[]{locationSetting};
+        // Filter on the weather rows directly if we know the location's id
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        long locationId = LocationIdCache.getLocationId(db, locationSetting);
+        String locationArg = locationId != -1 ? Long.toString(locationId) : locationSetting;
+
+        if (startDay == null) {
+            selection = locationId != -1 ? sLocationIdSelection : sLocationSettingSelection;
+            selectionArgs = new String[]{locationArg};
         } else {
-            selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
-            selection = sLocationSettingWithStartDateSelection;
+            selectionArgs = new String[]{locationArg, Integer.toString(startDay)};
+            selection = locationId != -1
+                    ? sLocationIdWithStartDateSelection : sLocationSettingWithStartDateSelection;
         }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
-                selection,
-                selectionArgs,
-                null,
-                null,
-                sortOrder
-        );
+        return queryWeatherByLocation(db, projection, selection, selectionArgs, sortOrder, limit);
+    }
+
+    /**
+     * @return the limit of the rows of the URI, or null if there is none
+     */
+    private static String getLimit(Uri uri) {
+        int limit = WeatherContract.WeatherEntry.getLimitFromUri(uri);
+        return limit > 0 ? Integer.toString(limit) : null;
     }
 
     private Cursor getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
-        long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+        int day = WeatherContract.getDay(WeatherContract.WeatherEntry.getDateFromUri(uri));
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        long locationId = LocationIdCache.getLocationId(db, locationSetting);
+
+        return queryWeatherByLocation(db,
                 projection,
-                sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
-                null,
+                locationId != -1 ? sLocationIdAndDaySelection : sLocationSettingAndDaySelection,
+                new String[]{locationId != -1 ? Long.toString(locationId) : locationSetting,
+                        Integer.toString(day)},
+                sortOrder,
+                null
+        );
+    }
+
+    private Cursor getWeatherStats(Uri uri, String[] projection) {
+        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        long fromDate = WeatherContract.WeatherEntry.getFromDateFromUri(uri);
+        long toDate = WeatherContract.WeatherEntry.getToDateFromUri(uri);
+        int fromDay = fromDate != 0 ? WeatherContract.getDay(fromDate) : Integer.MIN_VALUE;
+        int toDay = toDate != Long.MAX_VALUE ? WeatherContract.getDay(toDate) : Integer.MAX_VALUE;
+
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        long locationId = LocationIdCache.getLocationId(db, locationSetting);
+
+        return queryWeatherByLocation(db,
+                buildStatsProjection(projection),
+                locationId != -1 ? sLocationIdWithDateRangeSelection
+                        : sLocationSettingWithDateRangeSelection,
+                new String[]{locationId != -1 ? Long.toString(locationId) : locationSetting,
+                        Integer.toString(fromDay), Integer.toString(toDay)},
                 null,
-                sortOrder
+                null
         );
     }
 
+    /**
+     * @return the aggregates of the requested statistics columns, all of them for null
+     */
+    static String[] buildStatsProjection(String[] columns) {
+        if (columns == null) {
+            columns = sStatsColumns.keySet().toArray(new String[sStatsColumns.size()]);
+        }
+        String[] projection = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            String aggregate = sStatsColumns.get(columns[i]);
+            if (aggregate == null) {
+                throw new IllegalArgumentException("Unknown statistics column: " + columns[i]);
+            }
+            projection[i] = aggregate + " AS " + columns[i];
+        }
+        return projection;
+    }
+
+    private Cursor getHistoryByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.HistoryEntry.getLocationSettingFromUri(uri);
+        int period = WeatherContract.HistoryEntry.getPeriodFromUri(uri);
+
+        String selection = sLocationSettingSelection;
+        String[] selectionArgs = new String[]{locationSetting};
+        if (period != -1) {
+            selection = sLocationSettingAndPeriodSelection;
+            selectionArgs = new String[]{locationSetting, Integer.toString(period)};
+        }
+        if (sortOrder == null) {
+            sortOrder = WeatherContract.HistoryEntry.TABLE_NAME + "." +
+                    WeatherContract.HistoryEntry.COLUMN_DATE + " ASC";
+        }
+        String sql = buildHistoryByLocationSql(projection, selection, sortOrder);
+        mSlowQueryLog.setStatement(sql, selectionArgs);
+        return mOpenHelper.getReadableDatabase().rawQuery(sql, selectionArgs);
+    }
+
+    static String buildHistoryByLocationSql(String[] projection, String selection,
+                                            String sortOrder) {
+        return SQLiteQueryBuilder.buildQueryString(false, sHistoryByLocationSettingTables,
+                projection, selection, null, null, sortOrder, null);
+    }
+
+    /**
+     * Queries a single table, like {@link SQLiteDatabase#query} does.
+     */
+    private Cursor queryTable(String table, String[] projection, String selection,
+                              String[] selectionArgs, String sortOrder, String limit) {
+        String sql = SQLiteQueryBuilder.buildQueryString(false, table, projection, selection,
+                null, null, sortOrder, limit);
+        mSlowQueryLog.setStatement(sql, selectionArgs);
+        return mOpenHelper.getReadableDatabase().rawQuery(sql, selectionArgs);
+    }
+
+    private Cursor queryWeatherByLocation(SQLiteDatabase db, String[] projection,
+                                          String selection, String[] selectionArgs,
+                                          String sortOrder, String limit) {
+        String key = selection + '\0' + Arrays.toString(projection) + '\0' + sortOrder +
+                '\0' + limit;
+        String sql = mWeatherByLocationSqlCache.get(key);
+        if (sql == null) {
+            sql = buildWeatherByLocationSql(projection, selection, sortOrder, limit);
+            mWeatherByLocationSqlCache.put(key, sql);
+        }
+        mSlowQueryLog.setStatement(sql, selectionArgs);
+        return db.rawQuery(sql, selectionArgs);
+    }
+
+    /**
+     * @return the SQL of a query on the weather joined with its location
+     */
+    static String buildWeatherByLocationSql(String[] projection, String selection,
+                                            String sortOrder) {
+        return buildWeatherByLocationSql(projection, selection, sortOrder, null);
+    }
+
+    static String buildWeatherByLocationSql(String[] projection, String selection,
+                                            String sortOrder, String limit) {
+        return SQLiteQueryBuilder.buildQueryString(false, sWeatherByLocationSettingTables,
+                projection, selection, null, null, sortOrder, limit);
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -128,8 +466,14 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER, WEATHER);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/" + WeatherContract.PATH_STATS,
+                WEATHER_STATS);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY, HISTORY);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/*", HISTORY_WITH_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY_COMPACTION, HISTORY_COMPACTION);
         return matcher;
     }
 
@@ -140,9 +484,34 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        startWarmUp();
         return true;
     }
 
+    /**
+     * Reads the settings of the slow query log and the location ids ahead of the first sync or
+     * query.  onCreate runs on the main thread, where neither the first read of the preferences
+     * nor opening the database, which may upgrade it, should happen.  Until the preferences
+     * have been read the slow query log is off.
+     */
+    private void startWarmUp() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                mSlowQueryLog.setThresholdMillis(
+                        PreferenceManager.getDefaultSharedPreferences(getContext()).getLong(
+                                getContext().getString(R.string.pref_slow_query_threshold), -1));
+                try {
+                    LocationIdCache.warm(mOpenHelper.getReadableDatabase());
+                } catch (SQLException e) {
+                    // the first lookup reads the table instead
+                    Log.w(LOG_TAG, "Error reading the location ids", e);
+                }
+            }
+        }, LOG_TAG + " warm-up").start();
+    }
+
     /*
         Students: Here's where you'll code the getType function that uses the UriMatcher.  You can
         test this by uncommenting testGetType in TestProvider.
@@ -157,6 +526,7 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             // Student: Uncomment and fill out these two cases
             case WEATHER_WITH_LOCATION_AND_DATE:
+            case WEATHER_STATS:
                 return WeatherContract.WeatherEntry.CONTENT_ITEM_TYPE;
             case WEATHER_WITH_LOCATION:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
@@ -164,6 +534,12 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case HISTORY:
+            case HISTORY_WITH_LOCATION:
+                return WeatherContract.HistoryEntry.CONTENT_TYPE;
+            case HISTORY_COMPACTION:
+                // can only be updated
+                return null;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -174,42 +550,89 @@ public class WeatherProvider extends ContentProvider {
                         String sortOrder) {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
+        long startNanos = mSlowQueryLog.start();
+        final int match = sUriMatcher.match(uri);
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        Uri notificationUri = uri;
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
+                String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+                String key = QueryResultCache.buildKey(locationSetting, uri, projection, sortOrder);
+                retCursor = mForecastCache.get(key);
+                if (retCursor == null) {
+                    int generation = mForecastCache.getGeneration(locationSetting);
+                    retCursor = mForecastCache.put(key, locationSetting, generation,
+                            getWeatherByLocationSettingAndDate(uri, projection, sortOrder));
+                }
                 break;
             }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+                String key = QueryResultCache.buildKey(locationSetting, uri, projection, sortOrder);
+                retCursor = mForecastCache.get(key);
+                if (retCursor == null) {
+                    int generation = mForecastCache.getGeneration(locationSetting);
+                    retCursor = mForecastCache.put(key, locationSetting, generation,
+                            getWeatherByLocationSetting(uri, projection, sortOrder));
+                }
+                break;
+            }
+            // "weather/*/stats"
+            case WEATHER_STATS: {
+                String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+                String key = QueryResultCache.buildKey(locationSetting, uri, projection, null);
+                retCursor = mForecastCache.get(key);
+                if (retCursor == null) {
+                    int generation = mForecastCache.getGeneration(locationSetting);
+                    retCursor = mForecastCache.put(key, locationSetting, generation,
+                            getWeatherStats(uri, projection));
+                }
+                // changed by the change of any day of the location
+                notificationUri =
+                        WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting);
                 break;
             }
             // "weather"
             case WEATHER: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
+                retCursor = queryTable(
                         WeatherContract.WeatherEntry.TABLE_NAME,
                         projection,
                         selection,
                         selectionArgs,
-                        null,
-                        null,
-                        sortOrder
+                        sortOrder,
+                        getLimit(uri)
                 );
                 break;
             }
             // "location"
             case LOCATION: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
+                retCursor = queryTable(
                         WeatherContract.LocationEntry.TABLE_NAME,
                         projection,
                         selection,
                         selectionArgs,
-                        null,
-                        null,
-                        sortOrder
+                        sortOrder,
+                        null
+                );
+                break;
+            }
+            // "history/*"
+            case HISTORY_WITH_LOCATION: {
+                retCursor = getHistoryByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "history"
+            case HISTORY: {
+                retCursor = queryTable(
+                        WeatherContract.HistoryEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        sortOrder,
+                        null
                 );
                 break;
             }
@@ -217,7 +640,13 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        retCursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
+        if (mSlowQueryLog.isEnabled()) {
+            // counting runs the query, which the cursor would otherwise defer to its first read
+            int rows = retCursor.getCount();
+            mSlowQueryLog.record(mOpenHelper.getReadableDatabase(),
+                    "query " + getUriShape(match), startNanos, rows);
+        }
         return retCursor;
     }
 
@@ -232,12 +661,35 @@ public class WeatherProvider extends ContentProvider {
 
         switch (match) {
             case WEATHER: {
-                normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                normalizeWeatherDate(values);
+                int outcome;
+                long _id = -1;
+                // The days of a batch, i.e. of a sync, share the statements of the batch
+                WeatherStatements statements = getBatchWeatherStatements(db);
+                boolean ownStatements = statements == null;
+                if (ownStatements) {
+                    statements = new WeatherStatements(db);
+                }
+                db.beginTransaction();
+                try {
+                    outcome = upsertWeather(db, statements, values);
+                    if (outcome != WEATHER_FAILED) {
+                        _id = getWeatherId(db, values);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    if (ownStatements) {
+                        statements.close();
+                    }
+                    db.endTransaction();
+                }
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                if (outcome != WEATHER_UNCHANGED) {
+                    notifyChange(Collections.singleton(getWeatherChangeUri(db, values)));
+                }
                 break;
             }
             case LOCATION: {
@@ -246,12 +698,22 @@ public class WeatherProvider extends ContentProvider {
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                notifyChange(Collections.singleton(uri));
+                break;
+            }
+            case HISTORY: {
+                normalizeDate(values);
+                long _id = db.insert(WeatherContract.HistoryEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = ContentUris.withAppendedId(uri, _id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                notifyChange(Collections.singleton(uri));
                 break;
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
         return returnUri;
     }
 
@@ -262,25 +724,84 @@ public class WeatherProvider extends ContentProvider {
         int rowsDeleted;
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
+        long startNanos = mSlowQueryLog.start();
+        mSlowQueryLog.setRowsStatement(getTableName(match), selection, selectionArgs);
+        Set<Uri> changedUris = new LinkedHashSet<Uri>();
         switch (match) {
             case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                db.beginTransaction();
+                try {
+                    addWeatherChangeUris(db, changedUris, selection, selectionArgs);
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                changedUris.add(uri);
+                break;
+            case HISTORY:
+                rowsDeleted = db.delete(
+                        WeatherContract.HistoryEntry.TABLE_NAME, selection, selectionArgs);
+                changedUris.add(uri);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(changedUris);
         }
+        mSlowQueryLog.record(db, "delete " + getUriShape(match), startNanos, rowsDeleted);
         return rowsDeleted;
     }
 
+    /**
+     * @return the path pattern of a match of the URI matcher, as the slow query log names it
+     */
+    static String getUriShape(int match) {
+        switch (match) {
+            case WEATHER:
+                return WeatherContract.PATH_WEATHER;
+            case WEATHER_WITH_LOCATION:
+                return WeatherContract.PATH_WEATHER + "/*";
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                return WeatherContract.PATH_WEATHER + "/*/#";
+            case WEATHER_STATS:
+                return WeatherContract.PATH_WEATHER + "/*/" + WeatherContract.PATH_STATS;
+            case LOCATION:
+                return WeatherContract.PATH_LOCATION;
+            case HISTORY:
+                return WeatherContract.PATH_HISTORY;
+            case HISTORY_WITH_LOCATION:
+                return WeatherContract.PATH_HISTORY + "/*";
+            case HISTORY_COMPACTION:
+                return WeatherContract.PATH_HISTORY_COMPACTION;
+            default:
+                return "unknown";
+        }
+    }
+
+    /**
+     * @return the table a match of the URI matcher updates and deletes in, or null if none
+     */
+    private static String getTableName(int match) {
+        switch (match) {
+            case WEATHER:
+                return WeatherContract.WeatherEntry.TABLE_NAME;
+            case LOCATION:
+                return WeatherContract.LocationEntry.TABLE_NAME;
+            case HISTORY:
+                return WeatherContract.HistoryEntry.TABLE_NAME;
+            default:
+                return null;
+        }
+    }
+
     private void normalizeDate(ContentValues values) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
@@ -289,29 +810,64 @@ public class WeatherProvider extends ContentProvider {
         }
     }
 
+    /**
+     * Normalizes the date of a weather row and sets its day to match.
+     */
+    private void normalizeWeatherDate(ContentValues values) {
+        if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
+            int day = WeatherContract.getDay(
+                    values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+            values.put(WeatherContract.WeatherEntry.COLUMN_DATE, WeatherContract.getStartOfDay(day));
+            values.put(WeatherContract.WeatherEntry.COLUMN_DAY, day);
+        }
+    }
+
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
+        Set<Uri> changedUris = new LinkedHashSet<Uri>();
+        long startNanos = mSlowQueryLog.start();
+        mSlowQueryLog.setRowsStatement(getTableName(match), selection, selectionArgs);
 
         switch (match) {
             case WEATHER:
-                normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                normalizeWeatherDate(values);
+                db.beginTransaction();
+                try {
+                    addWeatherChangeUris(db, changedUris, selection, selectionArgs);
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)
+                        || values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)
+                        || values.containsKey(WeatherContract.WeatherEntry.COLUMN_DAY)) {
+                    // the rows have been moved to days we can't name without reading them again
+                    changedUris.add(WeatherContract.WeatherEntry.CONTENT_URI);
+                }
                 break;
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                changedUris.add(uri);
+                break;
+            case HISTORY_COMPACTION:
+                // the values and the selection are ignored
+                rowsUpdated = HistoryCompaction.compact(db, System.currentTimeMillis());
+                changedUris.add(WeatherContract.HistoryEntry.CONTENT_URI);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(changedUris);
         }
+        mSlowQueryLog.record(db, "update " + getUriShape(match), startNanos, rowsUpdated);
         return rowsUpdated;
     }
 
@@ -321,27 +877,341 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
                 int returnCount = 0;
+                Set<Uri> changedUris = new LinkedHashSet<Uri>();
+                // compiled once for all rows, instead of building the SQL for each of them
+                WeatherStatements statements = new WeatherStatements(db);
+                db.beginTransaction();
                 try {
                     for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
+                        normalizeWeatherDate(value);
+                        int outcome = upsertWeather(db, statements, value);
+                        if (outcome != WEATHER_FAILED) {
                             returnCount++;
                         }
+                        if (outcome == WEATHER_UPDATED || outcome == WEATHER_INSERTED) {
+                            changedUris.add(getWeatherChangeUri(db, value));
+                        }
                     }
                     db.setTransactionSuccessful();
                 } finally {
+                    statements.close();
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                if (!changedUris.isEmpty()) {
+                    notifyChange(changedUris);
+                }
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Writes a day of weather in place.  The row of the same location and day keeps its id and
+     * is only written if any of its values differ; a replaced row would get a new id, and all
+     * of its indexes would be rewritten.  A day which isn't stored yet is inserted.
+     *
+     * A complete row is bound to the compiled statements.  Other rows are written like
+     * {@link SQLiteDatabase#update} and {@link SQLiteDatabase#insert} would, so they are
+     * updated even if nothing has changed.
+     *
+     * @return WEATHER_UPDATED, WEATHER_INSERTED, WEATHER_UNCHANGED or WEATHER_FAILED
+     */
+    private int upsertWeather(SQLiteDatabase db, WeatherStatements statements,
+                              ContentValues values) {
+        if (!isCompleteWeather(values)) {
+            Long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+            Integer day = values.getAsInteger(WeatherContract.WeatherEntry.COLUMN_DAY);
+            if (locationId != null && day != null
+                    && db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            sLocationIdAndDaySelection,
+                            new String[]{Long.toString(locationId), Integer.toString(day)}) > 0) {
+                return WEATHER_UPDATED;
+            }
+            return db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values) != -1
+                    ? WEATHER_INSERTED : WEATHER_FAILED;
+        }
+
+        bindWeather(statements.mUpdate, values);
+        bindWeather(statements.mInsert, values);
+        try {
+            if (executeUpdateDelete(db, statements.mUpdate) > 0) {
+                return WEATHER_UPDATED;
+            }
+            // Nothing updated: either the day is stored with the same values, which makes the
+            // insert ignore it, or it isn't stored yet
+            return statements.mInsert.executeInsert() != -1 ? WEATHER_INSERTED : WEATHER_UNCHANGED;
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Error writing " + values, e);
+            return WEATHER_FAILED;
+        }
+    }
+
+    /**
+     * @return the weather statements of the batch applied on this thread, compiled on first
+     * use, or null outside of a batch
+     */
+    private WeatherStatements getBatchWeatherStatements(SQLiteDatabase db) {
+        if (mBatchChangedUris.get() == null) {
+            return null;
+        }
+        WeatherStatements statements = mBatchWeatherStatements.get();
+        if (statements == null) {
+            statements = new WeatherStatements(db);
+            mBatchWeatherStatements.set(statements);
+        }
+        return statements;
+    }
+
+    /**
+     * @return true if the values hold all columns of a weather row and none of them is null,
+     * so the insert can only be ignored because the day exists
+     */
+    private static boolean isCompleteWeather(ContentValues values) {
+        if (values.size() != WEATHER_INSERT_COLUMNS.length) {
+            return false;
+        }
+        for (String column : WEATHER_INSERT_COLUMNS) {
+            if (values.get(column) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of rows changed by an UPDATE or DELETE statement
+     */
+    private static int executeUpdateDelete(SQLiteDatabase db, SQLiteStatement statement) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return executeUpdateDeleteHoneycomb(statement);
+        }
+        // the transaction keeps the connection to this thread, nothing else runs in between
+        statement.execute();
+        return (int) DatabaseUtils.longForQuery(db, "SELECT changes()", null);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static int executeUpdateDeleteHoneycomb(SQLiteStatement statement) {
+        return statement.executeUpdateDelete();
+    }
+
+    private static void bindWeather(SQLiteStatement statement, ContentValues values) {
+        statement.clearBindings();
+        for (int i = 0; i < WEATHER_INSERT_COLUMNS.length; i++) {
+            DatabaseUtils.bindObjectToProgram(statement, i + 1,
+                    values.get(WEATHER_INSERT_COLUMNS[i]));
+        }
+    }
+
+    /**
+     * @return the id of the weather row of the location and day in the values, or -1
+     */
+    private static long getWeatherId(SQLiteDatabase db, ContentValues values) {
+        Long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        Integer day = values.getAsInteger(WeatherContract.WeatherEntry.COLUMN_DAY);
+        if (locationId == null || day == null) {
+            return -1;
+        }
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry._ID}, sLocationIdAndDaySelection,
+                new String[]{Long.toString(locationId), Integer.toString(day)},
+                null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Applies all operations in a single transaction.  The observers of each changed URI are
+     * notified once, after the transaction has been committed.  The weather inserts of the
+     * batch share one pair of compiled statements, like the rows of {@link #bulkInsert}.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final Set<Uri> changedUris = new LinkedHashSet<Uri>();
+        ContentProviderResult[] results;
+
+        mBatchChangedUris.set(changedUris);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            WeatherStatements statements = mBatchWeatherStatements.get();
+            if (statements != null) {
+                statements.close();
+                mBatchWeatherStatements.remove();
+            }
+            db.endTransaction();
+            mBatchChangedUris.remove();
+            invalidateCachedResults(changedUris);
+            if (changedUris.contains(WeatherContract.LocationEntry.CONTENT_URI)) {
+                // the ids cached during the batch may have been rolled back
+                LocationIdCache.invalidate();
+            }
+        }
+
+        for (Uri uri : coalesceChanges(changedUris)) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+        return results;
+    }
+
+    /**
+     * Notifies the observers of the URIs, or defers it until the end of the batch being applied
+     * on this thread.  The cached location ids are dropped right away, the cached forecasts
+     * once the change has been committed.
+     */
+    private void notifyChange(Collection<Uri> uris) {
+        for (Uri uri : uris) {
+            if (sUriMatcher.match(uri) == LOCATION) {
+                LocationIdCache.invalidate();
+                break;
+            }
+        }
+        Set<Uri> batchChangedUris = mBatchChangedUris.get();
+        if (batchChangedUris != null) {
+            batchChangedUris.addAll(uris);
+        } else {
+            invalidateCachedResults(uris);
+            for (Uri uri : coalesceChanges(uris)) {
+                getContext().getContentResolver().notifyChange(uri, null);
+            }
+        }
+    }
+
+    /**
+     * Drops the cached forecasts of the locations whose weather has changed, or all of them
+     * after a change of the locations themselves or of weather of unknown locations.  The
+     * history isn't cached, its changes keep the forecasts.
+     */
+    private void invalidateCachedResults(Collection<Uri> changedUris) {
+        Set<String> locationSettings = new HashSet<String>();
+        for (Uri uri : changedUris) {
+            switch (sUriMatcher.match(uri)) {
+                case WEATHER_WITH_LOCATION:
+                case WEATHER_WITH_LOCATION_AND_DATE:
+                    locationSettings.add(
+                            WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
+                    break;
+                case HISTORY:
+                case HISTORY_WITH_LOCATION:
+                case HISTORY_COMPACTION:
+                    break;
+                default:
+                    mForecastCache.invalidate();
+                    return;
+            }
+        }
+        for (String locationSetting : locationSettings) {
+            mForecastCache.invalidate(locationSetting);
+        }
+    }
+
+    /**
+     * Reduces the changed URIs to the ones notified.  Observers are registered for descendants,
+     * so the changes of a single day are notified on the day's URI, the changes of several days
+     * of a location once on the location's URI, and nothing below the weather URI if that one
+     * has changed itself.  The list of a location thus isn't reloaded for another location, and
+     * the detail of a day not for another day.
+     */
+    static Set<Uri> coalesceChanges(Collection<Uri> uris) {
+        boolean weatherChanged = uris.contains(WeatherContract.WeatherEntry.CONTENT_URI);
+        Map<String, Uri> locationUris = new LinkedHashMap<String, Uri>();
+        Set<Uri> coalesced = new LinkedHashSet<Uri>();
+        for (Uri uri : uris) {
+            int match = sUriMatcher.match(uri);
+            if (match != WEATHER_WITH_LOCATION && match != WEATHER_WITH_LOCATION_AND_DATE) {
+                coalesced.add(uri);
+            } else if (!weatherChanged) {
+                String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+                Uri locationUri = locationUris.get(locationSetting);
+                if (locationUri == null) {
+                    locationUris.put(locationSetting, uri);
+                } else if (!locationUri.equals(uri)) {
+                    locationUris.put(locationSetting,
+                            WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting));
+                }
+            }
+        }
+        coalesced.addAll(locationUris.values());
+        return coalesced;
+    }
+
+    /**
+     * @return the URI of the day of an inserted weather row, or the weather URI if the row's
+     * location isn't known
+     */
+    private Uri getWeatherChangeUri(SQLiteDatabase db, ContentValues values) {
+        Long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        Long date = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        if (locationId == null || date == null) {
+            return WeatherContract.WeatherEntry.CONTENT_URI;
+        }
+        return getWeatherChangeUri(db, locationId, date);
+    }
+
+    private Uri getWeatherChangeUri(SQLiteDatabase db, long locationId, long date) {
+        String locationSetting = LocationIdCache.getLocationSetting(db, locationId);
+        if (locationSetting == null) {
+            return WeatherContract.WeatherEntry.CONTENT_URI;
+        }
+        return WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationSetting, date);
+    }
+
+    /**
+     * Adds the URIs of the days of the weather rows matching the selection, before they are
+     * changed.  Must be called in the transaction changing them.
+     */
+    private void addWeatherChangeUris(SQLiteDatabase db, Set<Uri> changedUris,
+                                      String selection, String[] selectionArgs) {
+        Cursor cursor = db.query(true, WeatherContract.WeatherEntry.TABLE_NAME,
+                WEATHER_CHANGE_COLUMNS, selection, selectionArgs, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                changedUris.add(getWeatherChangeUri(db, cursor.getLong(0), cursor.getLong(1)));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Prints the hits and misses of the forecast cache, then the slow query log, see
+     * {@link SlowQueryLog}.  Turn the log on for calls over 50ms with
+     * {@code adb shell dumpsys activity provider
+     * com.example.android.sunshine.app/.data.WeatherProvider --slow-queries 50}, and off again
+     * with {@code --slow-queries off}.  The setting is kept across restarts of the app.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        int argIndex = args != null ? Arrays.asList(args).indexOf(ARG_SLOW_QUERIES) : -1;
+        if (argIndex != -1 && argIndex + 1 < args.length) {
+            long thresholdMillis;
+            try {
+                thresholdMillis = "off".equals(args[argIndex + 1])
+                        ? -1 : Long.parseLong(args[argIndex + 1]);
+            } catch (NumberFormatException e) {
+                writer.println("Not a threshold in milliseconds: " + args[argIndex + 1]);
+                return;
+            }
+            mSlowQueryLog.setThresholdMillis(thresholdMillis);
+            PreferenceManager.getDefaultSharedPreferences(getContext()).edit()
+                    .putLong(getContext().getString(R.string.pref_slow_query_threshold),
+                            thresholdMillis)
+                    .apply();
+        }
+        writer.println("Forecast cache: " + mForecastCache.getHitCount() + " hits, "
+                + mForecastCache.getMissCount() + " misses");
+        mSlowQueryLog.dump(writer);
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
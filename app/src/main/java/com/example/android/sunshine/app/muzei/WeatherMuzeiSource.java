@@ -18,8 +18,10 @@ package com.example.android.sunshine.app.muzei;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
+import android.preference.PreferenceManager;
 
 import com.example.android.sunshine.app.MainActivity;
+import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
@@ -52,11 +54,33 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
         }
     }
 
+    @Override
+    protected void onEnabled() {
+        super.onEnabled();
+        setEnabledPreference(true);
+    }
+
+    @Override
+    protected void onDisabled() {
+        super.onDisabled();
+        setEnabledPreference(false);
+    }
+
+    /**
+     * Lets the sync know whether Muzei is showing our weather.
+     */
+    private void setEnabledPreference(boolean enabled) {
+        PreferenceManager.getDefaultSharedPreferences(this).edit()
+                .putBoolean(getString(R.string.pref_muzei_enabled), enabled)
+                .apply();
+    }
+
     @Override
     protected void onUpdate(int reason) {
         String location = Utility.getPreferredLocation(this);
+        // only today is shown
         Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
+                location, System.currentTimeMillis(), 1);
         Cursor cursor = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
                 null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
         if (cursor.moveToFirst()) {
@@ -0,0 +1,120 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs the consumers of a sync, i.e. widgets, Muzei, the notification and the wearable, in
+ * parallel on threads of their own, so a slow one, e.g. the art of the notification, can't
+ * hold up the others, and the sync can carry on with the history and scheduling meanwhile.
+ *
+ * The sync thread still waits for them in {@link #awaitAll} before the sync returns: a sync
+ * adapter has no way to outlive onPerformSync, the sync manager releases its wake lock and
+ * the process may be killed right after.  Every consumer gets {@link #CONSUMER_TIMEOUT_MILLIS}
+ * before it is interrupted.  Each sync has threads of its own, which go away with it, so a
+ * consumer which ignores the interruption can't hold up the consumers of the next sync.
+ */
+class ConsumerDispatcher {
+
+    private static final String LOG_TAG = ConsumerDispatcher.class.getSimpleName();
+
+    static final long CONSUMER_TIMEOUT_MILLIS = 20 * 1000;
+
+    // There are four consumers, none of them has to wait for another
+    private static final int MAX_THREADS = 4;
+
+    private static class Consumer {
+        final String mName;
+        final long mDeadlineNanos = System.nanoTime() + CONSUMER_TIMEOUT_MILLIS * 1000000;
+        // Set by the consumer's thread once it is done
+        volatile long mNanos;
+        Future<?> mFuture;
+
+        Consumer(String name) {
+            mName = name;
+        }
+    }
+
+    private final SyncTrace mTrace;
+    private final List<Consumer> mConsumers = new ArrayList<Consumer>();
+    // Threads are only started for the consumers which are dispatched
+    private final ThreadPoolExecutor mExecutor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+            0, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(MAX_THREADS));
+
+    /**
+     * @param trace receives the time each consumer took, once it has been awaited
+     */
+    ConsumerDispatcher(SyncTrace trace) {
+        mTrace = trace;
+    }
+
+    /**
+     * Starts a consumer and returns right away.
+     *
+     * @param name the name the consumer's time is recorded under in the trace
+     */
+    void dispatch(String name, final Runnable runnable) {
+        final Consumer consumer = new Consumer(name);
+        try {
+            consumer.mFuture = mExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    long start = System.nanoTime();
+                    try {
+                        runnable.run();
+                    } catch (RuntimeException e) {
+                        Log.e(LOG_TAG, "Error notifying " + consumer.mName, e);
+                    }
+                    consumer.mNanos = System.nanoTime() - start;
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // more consumers than there is room for, or dispatched after awaitAll
+            Log.e(LOG_TAG, "Dropped notifying " + name, e);
+            return;
+        }
+        mConsumers.add(consumer);
+    }
+
+    /**
+     * Waits until every dispatched consumer is done or has used up its time, which interrupts
+     * it, and records their times in the trace.  The threads are let go, the dispatcher can't
+     * be used anymore.
+     */
+    void awaitAll() {
+        for (Consumer consumer : mConsumers) {
+            try {
+                consumer.mFuture.get(Math.max(0, consumer.mDeadlineNanos - System.nanoTime()),
+                        TimeUnit.NANOSECONDS);
+                mTrace.add("notify " + consumer.mName, consumer.mNanos);
+            } catch (TimeoutException | CancellationException e) {
+                consumer.mFuture.cancel(true);
+                Log.w(LOG_TAG, "Notifying " + consumer.mName + " timed out");
+                mTrace.add("notify " + consumer.mName + " timed out",
+                        CONSUMER_TIMEOUT_MILLIS * 1000000);
+            } catch (ExecutionException e) {
+                // the consumers catch their own errors
+                Log.e(LOG_TAG, "Error notifying " + consumer.mName, e);
+            } catch (InterruptedException e) {
+                // the sync has been canceled, so are the consumers which are still running
+                for (Consumer pending : mConsumers) {
+                    pending.mFuture.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        mConsumers.clear();
+        mExecutor.shutdownNow();
+    }
+}
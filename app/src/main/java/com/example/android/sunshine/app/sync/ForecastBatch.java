@@ -0,0 +1,244 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.os.RemoteException;
+
+import com.example.android.sunshine.app.data.LocationIdCache;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects the provider operations needed to replace the stored forecast of a location, or to
+ * move the past days of all locations to the history, so they can be committed in a single
+ * transaction with a single change notification.  Observers never see a half replaced
+ * forecast.
+ *
+ * Only days which differ from the stored ones are written.
+ */
+class ForecastBatch {
+
+    private static final String[] ARCHIVE_PROJECTION = new String[] {
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED
+    };
+
+    // these indices must match the projection
+    private static final int COL_LOC_KEY = 0;
+    private static final int COL_DATE = 1;
+    private static final int COL_WEATHER_ID = 2;
+    private static final int COL_MIN_TEMP = 3;
+    private static final int COL_MAX_TEMP = 4;
+    private static final int COL_HUMIDITY = 5;
+    private static final int COL_PRESSURE = 6;
+    private static final int COL_WIND_SPEED = 7;
+
+    private final ContentResolver mResolver;
+    private final ArrayList<ContentProviderOperation> mOperations =
+            new ArrayList<ContentProviderOperation>();
+    // Positions of the update and delete operations, to sum up their results
+    private final List<Integer> mUpdateIndices = new ArrayList<Integer>();
+    private final List<Integer> mDeleteIndices = new ArrayList<Integer>();
+    // The same delete positions by the location they delete from
+    private final Map<Long, List<Integer>> mDeleteIndicesByLocation =
+            new HashMap<Long, List<Integer>>();
+
+    ForecastBatch(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Queues the replacement of the stored forecast of a location: the location is inserted
+     * or updated, changed days are written and stored days the new forecast doesn't reach
+     * anymore are deleted.
+     *
+     * @return the number of days queued for writing
+     */
+    int add(LocationForecast forecast) {
+        long locationId = LocationIdCache.getLocationId(mResolver, forecast.getLocationSetting());
+        int locationOperationIndex = -1;
+        StoredForecast storedForecast = null;
+
+        if (locationId == -1) {
+            // the weather rows refer to the location by the result of its insert
+            locationOperationIndex = mOperations.size();
+            ContentValues locationValues = new ContentValues();
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, forecast.getCityName());
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, forecast.getLocationSetting());
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, forecast.getLat());
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, forecast.getLon());
+            mOperations.add(ContentProviderOperation
+                    .newInsert(WeatherContract.LocationEntry.CONTENT_URI)
+                    .withValues(locationValues)
+                    .build());
+        } else {
+            // Only touches the row if the server has renamed or moved the location
+            mUpdateIndices.add(mOperations.size());
+            mOperations.add(ContentProviderOperation
+                    .newUpdate(WeatherContract.LocationEntry.CONTENT_URI)
+                    .withValue(WeatherContract.LocationEntry.COLUMN_CITY_NAME, forecast.getCityName())
+                    .withValue(WeatherContract.LocationEntry.COLUMN_COORD_LAT, forecast.getLat())
+                    .withValue(WeatherContract.LocationEntry.COLUMN_COORD_LONG, forecast.getLon())
+                    .withSelection(WeatherContract.LocationEntry._ID + " = ? AND ("
+                                    + WeatherContract.LocationEntry.COLUMN_CITY_NAME + " != ? OR "
+                                    + WeatherContract.LocationEntry.COLUMN_COORD_LAT + " != ? OR "
+                                    + WeatherContract.LocationEntry.COLUMN_COORD_LONG + " != ?)",
+                            new String[]{Long.toString(locationId), forecast.getCityName(),
+                                    Double.toString(forecast.getLat()),
+                                    Double.toString(forecast.getLon())})
+                    .build());
+            storedForecast = StoredForecast.load(mResolver, locationId);
+        }
+
+        int queued = 0;
+        for (ContentValues weatherValues : forecast.getDays()) {
+            if (storedForecast != null && storedForecast.isUnchanged(weatherValues)) {
+                continue;
+            }
+            ContentProviderOperation.Builder builder = ContentProviderOperation
+                    .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withValues(weatherValues);
+            if (locationOperationIndex != -1) {
+                builder.withValueBackReference(WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                        locationOperationIndex);
+            } else {
+                builder.withValue(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+            }
+            mOperations.add(builder.build());
+            queued++;
+        }
+
+        // Days beyond the end of a shorter forecast would otherwise be shown forever
+        List<ContentValues> days = forecast.getDays();
+        long lastDate = WeatherContract.normalizeDate(days.get(days.size() - 1)
+                .getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+        if (storedForecast != null && storedForecast.hasDaysAfter(lastDate)) {
+            addDelete(locationId, WeatherContract.WeatherEntry.COLUMN_DAY + " > ?",
+                    WeatherContract.getDay(lastDate));
+        }
+        return queued;
+    }
+
+    /**
+     * Queues the move of all the weather rows dated on or before the given date to the history,
+     * so the forecast doesn't build up an endless tail of past days.
+     */
+    void archiveUpTo(long date) {
+        int day = WeatherContract.getDay(date);
+        Set<Long> locationIds = new LinkedHashSet<Long>();
+        Cursor cursor = mResolver.query(WeatherContract.WeatherEntry.CONTENT_URI,
+                ARCHIVE_PROJECTION, WeatherContract.WeatherEntry.COLUMN_DAY + " <= ?",
+                new String[]{Integer.toString(day)}, null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    locationIds.add(cursor.getLong(COL_LOC_KEY));
+                    mOperations.add(ContentProviderOperation
+                            .newInsert(WeatherContract.HistoryEntry.CONTENT_URI)
+                            .withValues(buildHistoryValues(cursor))
+                            .build());
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        // One delete per location, so the sync can tell which locations have lost a day
+        for (long locationId : locationIds) {
+            addDelete(locationId, WeatherContract.WeatherEntry.COLUMN_DAY + " <= ?", day);
+        }
+    }
+
+    /**
+     * Queues the delete of the weather rows of a location whose day matches the selection.
+     */
+    private void addDelete(long locationId, String daySelection, int day) {
+        List<Integer> locationIndices = mDeleteIndicesByLocation.get(locationId);
+        if (locationIndices == null) {
+            locationIndices = new ArrayList<Integer>();
+            mDeleteIndicesByLocation.put(locationId, locationIndices);
+        }
+        locationIndices.add(mOperations.size());
+        mDeleteIndices.add(mOperations.size());
+        mOperations.add(ContentProviderOperation
+                .newDelete(WeatherContract.WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND "
+                                + daySelection,
+                        new String[]{Long.toString(locationId), Integer.toString(day)})
+                .build());
+    }
+
+    /**
+     * @return the history row of a day, as it was last forecast before it passed
+     */
+    private static ContentValues buildHistoryValues(Cursor cursor) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.HistoryEntry.COLUMN_LOC_KEY, cursor.getLong(COL_LOC_KEY));
+        values.put(WeatherContract.HistoryEntry.COLUMN_DATE, cursor.getLong(COL_DATE));
+        values.put(WeatherContract.HistoryEntry.COLUMN_PERIOD,
+                WeatherContract.HistoryEntry.PERIOD_DAY);
+        values.put(WeatherContract.HistoryEntry.COLUMN_DAY_COUNT, 1);
+        values.put(WeatherContract.HistoryEntry.COLUMN_WEATHER_ID, cursor.getInt(COL_WEATHER_ID));
+        values.put(WeatherContract.HistoryEntry.COLUMN_MIN_TEMP, cursor.getDouble(COL_MIN_TEMP));
+        values.put(WeatherContract.HistoryEntry.COLUMN_MAX_TEMP, cursor.getDouble(COL_MAX_TEMP));
+        values.put(WeatherContract.HistoryEntry.COLUMN_AVG_MIN_TEMP, cursor.getDouble(COL_MIN_TEMP));
+        values.put(WeatherContract.HistoryEntry.COLUMN_AVG_MAX_TEMP, cursor.getDouble(COL_MAX_TEMP));
+        values.put(WeatherContract.HistoryEntry.COLUMN_HUMIDITY, cursor.getDouble(COL_HUMIDITY));
+        values.put(WeatherContract.HistoryEntry.COLUMN_PRESSURE, cursor.getDouble(COL_PRESSURE));
+        values.put(WeatherContract.HistoryEntry.COLUMN_WIND_SPEED, cursor.getDouble(COL_WIND_SPEED));
+        return values;
+    }
+
+    /**
+     * Applies all queued operations in one provider transaction.
+     */
+    ContentProviderResult[] commit() throws RemoteException, OperationApplicationException {
+        return mResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, mOperations);
+    }
+
+    /**
+     * @return the number of locations updated by the committed operations
+     */
+    int getUpdatedCount(ContentProviderResult[] results) {
+        return sumCounts(results, mUpdateIndices);
+    }
+
+    /**
+     * @return the number of weather rows deleted by the committed operations
+     */
+    int getDeletedCount(ContentProviderResult[] results) {
+        return sumCounts(results, mDeleteIndices);
+    }
+
+    /**
+     * @return the number of weather rows of the location deleted by the committed operations
+     */
+    int getDeletedCount(ContentProviderResult[] results, long locationId) {
+        List<Integer> locationIndices = mDeleteIndicesByLocation.get(locationId);
+        return locationIndices != null ? sumCounts(results, locationIndices) : 0;
+    }
+
+    private static int sumCounts(ContentProviderResult[] results, List<Integer> indices) {
+        int count = 0;
+        for (int index : indices) {
+            count += results[index].count;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.os.Build;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+
+/**
+ * Streaming parser for the OpenWeatherMap daily forecast response.
+ *
+ * The response is read token by token and every day of the "list" array is handed to the
+ * {@link Listener} as soon as it is complete, so neither the raw response nor a JSON object
+ * tree of the whole forecast is ever held in memory.  The streaming itself is done by
+ * {@link ForecastJsonStreamParser}; Gingerbread devices fall back to an object tree.
+ */
+class ForecastJsonParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    static final String OWM_CITY = "city";
+    static final String OWM_CITY_NAME = "name";
+    static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    static final String OWM_LATITUDE = "lat";
+    static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    static final String OWM_LIST = "list";
+
+    static final String OWM_PRESSURE = "pressure";
+    static final String OWM_HUMIDITY = "humidity";
+    static final String OWM_WINDSPEED = "speed";
+    static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    static final String OWM_TEMPERATURE = "temp";
+    static final String OWM_MAX = "max";
+    static final String OWM_MIN = "min";
+
+    static final String OWM_WEATHER = "weather";
+    static final String OWM_DESCRIPTION = "main";
+    static final String OWM_WEATHER_ID = "id";
+
+    static final String OWM_MESSAGE_CODE = "cod";
+
+    /**
+     * Receives the parsed parts of a forecast in the order they appear in the response.
+     */
+    interface Listener {
+        void onCity(String cityName, double lat, double lon);
+
+        /**
+         * @param dayIndex position of the day within the forecast, 0 being today
+         * @param dayValues weather columns of the day, without location key and date
+         */
+        void onDay(int dayIndex, ContentValues dayValues);
+    }
+
+    /**
+     * Parses the forecast read from the given reader.
+     *
+     * @return the message code of the response, {@link HttpURLConnection#HTTP_OK} if there is none
+     * @throws IOException if reading from the stream fails
+     * @throws JSONException if the response isn't a valid forecast
+     */
+    int parse(Reader in, Listener listener) throws IOException, JSONException {
+        // JsonReader is only available on Honeycomb and higher devices.  It is only referenced
+        // by ForecastJsonStreamParser, so older devices never load it.
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return parseTree(in, listener);
+        }
+        return ForecastJsonStreamParser.parse(in, listener);
+    }
+
+    /**
+     * Fallback for Gingerbread devices which have no streaming JSON reader.
+     */
+    private int parseTree(Reader in, Listener listener) throws IOException, JSONException {
+        BufferedReader reader = new BufferedReader(in);
+        StringBuilder buffer = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            buffer.append(line).append('\n');
+        }
+        if (buffer.length() == 0) {
+            throw new IOException("Empty forecast response");
+        }
+
+        JSONObject forecastJson = new JSONObject(buffer.toString());
+        int messageCode = forecastJson.has(OWM_MESSAGE_CODE)
+                ? forecastJson.getInt(OWM_MESSAGE_CODE)
+                : HttpURLConnection.HTTP_OK;
+        if (messageCode != HttpURLConnection.HTTP_OK) {
+            return messageCode;
+        }
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        listener.onCity(cityJson.getString(OWM_CITY_NAME),
+                cityCoord.getDouble(OWM_LATITUDE),
+                cityCoord.getDouble(OWM_LONGITUDE));
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+        for (int i = 0; i < weatherArray.length(); i++) {
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+            JSONObject weatherObject = dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, dayForecast.getInt(OWM_HUMIDITY));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, dayForecast.getDouble(OWM_PRESSURE));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, dayForecast.getDouble(OWM_WINDSPEED));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, dayForecast.getDouble(OWM_WIND_DIRECTION));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, temperatureObject.getDouble(OWM_MAX));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, temperatureObject.getDouble(OWM_MIN));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, weatherObject.getString(OWM_DESCRIPTION));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherObject.getInt(OWM_WEATHER_ID));
+            listener.onDay(i, weatherValues);
+        }
+        return messageCode;
+    }
+}
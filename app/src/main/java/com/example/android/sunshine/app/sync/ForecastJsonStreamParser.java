@@ -0,0 +1,185 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+
+/**
+ * The streaming half of {@link ForecastJsonParser}, built on {@link JsonReader}.
+ *
+ * JsonReader and its exceptions only exist on Honeycomb and higher devices.  Keeping every
+ * reference to them in this class means older devices never load, and never have to verify,
+ * code which uses them.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+class ForecastJsonStreamParser {
+
+    private ForecastJsonStreamParser() {}
+
+    /**
+     * @see ForecastJsonParser#parse
+     */
+    static int parse(Reader in, ForecastJsonParser.Listener listener)
+            throws IOException, JSONException {
+        try {
+            return parseStream(in, listener);
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            throw new JSONException(e.getMessage());
+        }
+    }
+
+    private static int parseStream(Reader in, ForecastJsonParser.Listener listener)
+            throws IOException {
+        int messageCode = HttpURLConnection.HTTP_OK;
+        JsonReader reader = new JsonReader(in);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (ForecastJsonParser.OWM_MESSAGE_CODE.equals(name)) {
+                messageCode = reader.nextInt();
+            } else if (ForecastJsonParser.OWM_CITY.equals(name)) {
+                readCity(reader, listener);
+            } else if (ForecastJsonParser.OWM_LIST.equals(name)) {
+                int dayIndex = 0;
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    listener.onDay(dayIndex++, readDay(reader));
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return messageCode;
+    }
+
+    private static void readCity(JsonReader reader, ForecastJsonParser.Listener listener)
+            throws IOException {
+        String cityName = null;
+        double lat = 0;
+        double lon = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (ForecastJsonParser.OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (ForecastJsonParser.OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (ForecastJsonParser.OWM_LATITUDE.equals(coordName)) {
+                        lat = reader.nextDouble();
+                    } else if (ForecastJsonParser.OWM_LONGITUDE.equals(coordName)) {
+                        lon = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityName == null) {
+            throw new IllegalStateException("No value for " + ForecastJsonParser.OWM_CITY_NAME);
+        }
+        listener.onCity(cityName, lat, lon);
+    }
+
+    private static ContentValues readDay(JsonReader reader) throws IOException {
+        ContentValues weatherValues = new ContentValues();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (ForecastJsonParser.OWM_PRESSURE.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, reader.nextDouble());
+            } else if (ForecastJsonParser.OWM_HUMIDITY.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, reader.nextInt());
+            } else if (ForecastJsonParser.OWM_WINDSPEED.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, reader.nextDouble());
+            } else if (ForecastJsonParser.OWM_WIND_DIRECTION.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, reader.nextDouble());
+            } else if (ForecastJsonParser.OWM_TEMPERATURE.equals(name)) {
+                // Temperatures are in a child object called "temp".  Try not to name variables
+                // "temp" when working with temperature.  It confuses everybody.
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (ForecastJsonParser.OWM_MAX.equals(temperatureName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, reader.nextDouble());
+                    } else if (ForecastJsonParser.OWM_MIN.equals(temperatureName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, reader.nextDouble());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (ForecastJsonParser.OWM_WEATHER.equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (ForecastJsonParser.OWM_DESCRIPTION.equals(weatherName)) {
+                            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, reader.nextString());
+                        } else if (ForecastJsonParser.OWM_WEATHER_ID.equals(weatherName)) {
+                            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, reader.nextInt());
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        checkDay(weatherValues);
+        return weatherValues;
+    }
+
+    /**
+     * Fails like the object tree lookups did if a day misses one of the columns we store.
+     */
+    private static void checkDay(ContentValues weatherValues) {
+        final String[] requiredColumns = {
+                WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                WeatherContract.WeatherEntry.COLUMN_DEGREES,
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                WeatherContract.WeatherEntry.COLUMN_WEATHER_ID
+        };
+        for (String column : requiredColumns) {
+            if (!weatherValues.containsKey(column)) {
+                throw new IllegalStateException("No value for " + column);
+            }
+        }
+    }
+}
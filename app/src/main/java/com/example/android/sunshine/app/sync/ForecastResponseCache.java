@@ -0,0 +1,83 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.net.HttpURLConnection;
+
+/**
+ * Disk backed cache of the HTTP validators (ETag and Last-Modified) of forecast responses,
+ * keyed by the request URI.
+ *
+ * The body of a response isn't kept here: once a response has been parsed, the weather
+ * database is the cached copy of it.  So the validators of a request must only be stored after
+ * its response has been written to the database, and dropped whenever that data goes away.
+ */
+class ForecastResponseCache {
+
+    private static final String PREFS_NAME = "forecast_response_cache";
+    private static final String KEY_ETAG = "etag:";
+    private static final String KEY_LAST_MODIFIED = "last_modified:";
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+    private final SharedPreferences mPrefs;
+
+    ForecastResponseCache(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Turns the request into a conditional GET if validators are known for the URI.  Must be
+     * called before the connection is connected.
+     */
+    void applyValidators(String requestUri, HttpURLConnection urlConnection) {
+        String etag = mPrefs.getString(KEY_ETAG + requestUri, null);
+        if (etag != null) {
+            urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, etag);
+        }
+        long lastModified = mPrefs.getLong(KEY_LAST_MODIFIED + requestUri, 0);
+        if (lastModified > 0) {
+            urlConnection.setIfModifiedSince(lastModified);
+        }
+    }
+
+    /**
+     * @return the ETag of the response, or null if it has none
+     */
+    static String getETag(HttpURLConnection urlConnection) {
+        return urlConnection.getHeaderField(HEADER_ETAG);
+    }
+
+    /**
+     * Remembers the validators of a response whose data has been stored.
+     *
+     * @param etag the ETag of the response, may be null
+     * @param lastModified the Last-Modified time of the response, 0 if unknown
+     */
+    void storeValidators(String requestUri, String etag, long lastModified) {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        if (etag != null) {
+            editor.putString(KEY_ETAG + requestUri, etag);
+        } else {
+            editor.remove(KEY_ETAG + requestUri);
+        }
+        if (lastModified > 0) {
+            editor.putLong(KEY_LAST_MODIFIED + requestUri, lastModified);
+        } else {
+            editor.remove(KEY_LAST_MODIFIED + requestUri);
+        }
+        editor.apply();
+    }
+
+    /**
+     * Forgets the validators of the URI, so the next request downloads the full response.
+     */
+    void clearValidators(String requestUri) {
+        mPrefs.edit()
+                .remove(KEY_ETAG + requestUri)
+                .remove(KEY_LAST_MODIFIED + requestUri)
+                .apply();
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of fetching the forecast of a single location: the location reported by the
+ * server, the days of the forecast and how the request went.
+ *
+ * Instances are filled by a {@link ForecastJsonParser} on a fetch thread, which then stores the
+ * days and drops them, and read on the sync thread once the fetch has completed.
+ */
+class LocationForecast implements ForecastJsonParser.Listener {
+
+    private final String mLocationSetting;
+    private final String mRequestUri;
+    private List<ContentValues> mDays = new ArrayList<ContentValues>();
+    private int mDayCount;
+    private final int mStartDay;
+
+    @SunshineSyncAdapter.LocationStatus
+    private int mStatus = SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+    private boolean mNotModified;
+
+    private String mCityName;
+    private double mLat;
+    private double mLon;
+    private long mTodayHash;
+
+    private String mETag;
+    private long mLastModified;
+
+    // Time spent fetching the forecast, in nanoseconds
+    private long mConnectNanos;
+    private long mDownloadNanos;
+    private long mParseNanos;
+    private long mStoreNanos;
+
+    // The outcome of storing the days, see setStored
+    private boolean mStored;
+    private int mWrittenCount;
+    private int mUpdatedCount;
+    private int mDeletedCount;
+
+    LocationForecast(String locationSetting, String requestUri) {
+        mLocationSetting = locationSetting;
+        mRequestUri = requestUri;
+
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+
+        // we start at the day returned by local time. Otherwise this is a mess.
+        mStartDay = WeatherContract.getDay(System.currentTimeMillis());
+    }
+
+    @Override
+    public void onCity(String cityName, double lat, double lon) {
+        mCityName = cityName;
+        mLat = lat;
+        mLon = lon;
+    }
+
+    @Override
+    public void onDay(int dayIndex, ContentValues weatherValues) {
+        long dateTime = WeatherContract.getStartOfDay(mStartDay + dayIndex);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
+        if (dayIndex == 0) {
+            mTodayHash = StoredForecast.hashOfDay(weatherValues, dateTime);
+        }
+        mDays.add(weatherValues);
+        mDayCount++;
+    }
+
+    String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    String getRequestUri() {
+        return mRequestUri;
+    }
+
+    @SunshineSyncAdapter.LocationStatus
+    int getStatus() {
+        return mStatus;
+    }
+
+    void setStatus(@SunshineSyncAdapter.LocationStatus int status) {
+        mStatus = status;
+    }
+
+    /**
+     * @return true if the server answered a conditional request with "not modified"
+     */
+    boolean isNotModified() {
+        return mNotModified;
+    }
+
+    void setNotModified() {
+        mNotModified = true;
+        mStatus = SunshineSyncAdapter.LOCATION_STATUS_OK;
+    }
+
+    /**
+     * @return true if the forecast has been received completely and can be stored
+     */
+    boolean hasData() {
+        return mStatus == SunshineSyncAdapter.LOCATION_STATUS_OK && !mNotModified
+                && mCityName != null && mDayCount > 0;
+    }
+
+    String getCityName() {
+        return mCityName;
+    }
+
+    double getLat() {
+        return mLat;
+    }
+
+    double getLon() {
+        return mLon;
+    }
+
+    /**
+     * @return the days of the forecast, each without its location key, or none once they have
+     * been dropped
+     */
+    List<ContentValues> getDays() {
+        return mDays;
+    }
+
+    /**
+     * @return the number of days received, which is kept when the days are dropped
+     */
+    int getDayCount() {
+        return mDayCount;
+    }
+
+    /**
+     * Drops the days once they have been stored, or failed to be.
+     */
+    void dropDays() {
+        mDays = Collections.emptyList();
+    }
+
+    /**
+     * @param writtenCount the number of days written
+     * @param updatedCount the number of location rows updated
+     * @param deletedCount the number of stored days deleted beyond the end of the forecast
+     */
+    void setStored(int writtenCount, int updatedCount, int deletedCount) {
+        mStored = true;
+        mWrittenCount = writtenCount;
+        mUpdatedCount = updatedCount;
+        mDeletedCount = deletedCount;
+    }
+
+    /**
+     * @return true if the days have been committed to the provider
+     */
+    boolean isStored() {
+        return mStored;
+    }
+
+    int getWrittenCount() {
+        return mWrittenCount;
+    }
+
+    int getUpdatedCount() {
+        return mUpdatedCount;
+    }
+
+    int getDeletedCount() {
+        return mDeletedCount;
+    }
+
+    /**
+     * @return a hash over today's forecast and date
+     */
+    long getTodayHash() {
+        return mTodayHash;
+    }
+
+    long getYesterday() {
+        return WeatherContract.getStartOfDay(mStartDay - 1);
+    }
+
+    void setValidators(String etag, long lastModified) {
+        mETag = etag;
+        mLastModified = lastModified;
+    }
+
+    String getETag() {
+        return mETag;
+    }
+
+    long getLastModified() {
+        return mLastModified;
+    }
+
+    /**
+     * @param connectNanos the time until the response code had been received
+     * @param downloadNanos the time spent waiting for the body
+     * @param parseNanos the time spent parsing the body
+     */
+    void setTimings(long connectNanos, long downloadNanos, long parseNanos) {
+        mConnectNanos = connectNanos;
+        mDownloadNanos = downloadNanos;
+        mParseNanos = parseNanos;
+    }
+
+    long getConnectNanos() {
+        return mConnectNanos;
+    }
+
+    long getDownloadNanos() {
+        return mDownloadNanos;
+    }
+
+    long getParseNanos() {
+        return mParseNanos;
+    }
+
+    void setStoreNanos(long storeNanos) {
+        mStoreNanos = storeNanos;
+    }
+
+    long getStoreNanos() {
+        return mStoreNanos;
+    }
+}
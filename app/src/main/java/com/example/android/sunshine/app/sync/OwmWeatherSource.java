@@ -0,0 +1,220 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Fetches forecasts from OpenWeatherMap's daily forecast API.
+ */
+class OwmWeatherSource implements WeatherSource {
+
+    private static final String LOG_TAG = OwmWeatherSource.class.getSimpleName();
+
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    static final String FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+    private static final String QUERY_PARAM = "q";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+    private static final String APPID_PARAM = "APPID";
+
+    private final Context mContext;
+    private final String mBaseUrl;
+
+    OwmWeatherSource(Context context) {
+        this(context, FORECAST_BASE_URL);
+    }
+
+    /**
+     * @param baseUrl the URL the query parameters are appended to, e.g. the one of a test server
+     */
+    OwmWeatherSource(Context context, String baseUrl) {
+        mContext = context;
+        mBaseUrl = baseUrl;
+    }
+
+    @Override
+    public LocationForecast fetchForecast(String locationSetting, boolean conditional) {
+        // These two need to be declared outside the try/catch
+        // so that they can be closed in the finally block.
+        HttpURLConnection urlConnection = null;
+        Reader reader = null;
+
+        String format = "json";
+        String units = "metric";
+        int numDays = 14;
+
+        // Construct the URL for the OpenWeatherMap query
+        Uri builtUri = Uri.parse(mBaseUrl).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationSetting)
+                .appendQueryParameter(FORMAT_PARAM, format)
+                .appendQueryParameter(UNITS_PARAM, units)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+
+        String requestUri = builtUri.toString();
+        LocationForecast forecast = new LocationForecast(locationSetting, requestUri);
+
+        long connectNanos = 0;
+        TimedInputStream timedStream = null;
+        boolean parsing = false;
+        long parseStart = 0;
+        long parseNanos = 0;
+        try {
+            URL url = new URL(requestUri);
+            long connectStart = System.nanoTime();
+
+            // Create the request to OpenWeatherMap, and open the connection.  If we still have
+            // today's forecast for the location, only ask for it again if it has changed.
+            ForecastResponseCache responseCache = new ForecastResponseCache(mContext);
+            urlConnection = (HttpURLConnection) url.openConnection();
+            urlConnection.setRequestMethod("GET");
+            if (conditional) {
+                responseCache.applyValidators(requestUri, urlConnection);
+            } else {
+                responseCache.clearValidators(requestUri);
+            }
+            urlConnection.connect();
+            int responseCode = urlConnection.getResponseCode();
+            connectNanos = System.nanoTime() - connectStart;
+
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // The stored forecast is still current, so there is nothing to parse, store
+                // or announce.
+                forecast.setNotModified();
+                return forecast;
+            }
+
+            // Parse the response while it is downloaded, so neither the whole response nor
+            // a JSON object tree of it is held in memory.
+            InputStream inputStream = urlConnection.getInputStream();
+            if (inputStream == null) {
+                // Nothing to do.
+                forecast.setStatus(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN);
+                return forecast;
+            }
+            // Downloading and parsing are interleaved, so the time spent waiting for the
+            // stream tells them apart.
+            timedStream = new TimedInputStream(inputStream);
+            reader = new BufferedReader(new InputStreamReader(timedStream));
+            parseStart = System.nanoTime();
+            parsing = true;
+            getWeatherDataFromJson(reader, forecast);
+            parseNanos = System.nanoTime() - parseStart;
+            parsing = false;
+            forecast.setValidators(ForecastResponseCache.getETag(urlConnection),
+                    urlConnection.getLastModified());
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error ", e);
+            // If the code didn't successfully get the weather data, there's no point in attempting
+            // to parse it.
+            forecast.setStatus(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN);
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            e.printStackTrace();
+            forecast.setStatus(SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID);
+        } finally {
+            if (parsing) {
+                // the parser has failed
+                parseNanos = System.nanoTime() - parseStart;
+            }
+            long downloadNanos = timedStream != null ? timedStream.getReadNanos() : 0;
+            forecast.setTimings(connectNanos, downloadNanos, parseNanos - downloadNanos);
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+        return forecast;
+    }
+
+    /**
+     * Take the Reader delivering the forecast in JSON Format and collect the days it contains
+     * while they are read.
+     *
+     * The forecast is parsed as a stream, so neither the complete response nor an object
+     * hierarchy of it is ever built.
+     */
+    private void getWeatherDataFromJson(Reader forecastJsonReader,
+                                        LocationForecast forecast)
+            throws IOException, JSONException {
+
+        int messageCode = new ForecastJsonParser().parse(forecastJsonReader, forecast);
+
+        // do we have an error?
+        switch (messageCode) {
+            case HttpURLConnection.HTTP_OK:
+                break;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                forecast.setStatus(SunshineSyncAdapter.LOCATION_STATUS_INVALID);
+                return;
+            default:
+                forecast.setStatus(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN);
+                return;
+        }
+
+        if (forecast.getDayCount() > 0 && forecast.getCityName() == null) {
+            throw new JSONException("No value for city");
+        }
+        forecast.setStatus(SunshineSyncAdapter.LOCATION_STATUS_OK);
+    }
+
+    /**
+     * Keeps track of the time spent blocked in reading the stream.
+     */
+    private static class TimedInputStream extends FilterInputStream {
+
+        private long mReadNanos;
+
+        TimedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            try {
+                return super.read();
+            } finally {
+                mReadNanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long start = System.nanoTime();
+            try {
+                return super.read(buffer, offset, count);
+            } finally {
+                mReadNanos += System.nanoTime() - start;
+            }
+        }
+
+        long getReadNanos() {
+            return mReadNanos;
+        }
+    }
+}
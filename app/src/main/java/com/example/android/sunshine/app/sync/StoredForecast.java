@@ -0,0 +1,158 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Content hashes of the weather rows stored for a location, used to tell which days of a new
+ * forecast actually differ from the ones we already have.
+ */
+class StoredForecast {
+
+    private static final String[] HASH_PROJECTION = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_SHORT_DESC = 2;
+    private static final int INDEX_MIN_TEMP = 3;
+    private static final int INDEX_MAX_TEMP = 4;
+    private static final int INDEX_HUMIDITY = 5;
+    private static final int INDEX_PRESSURE = 6;
+    private static final int INDEX_WIND_SPEED = 7;
+    private static final int INDEX_DEGREES = 8;
+
+    private final Map<Long, Long> mHashByDate;
+
+    private StoredForecast(Map<Long, Long> hashByDate) {
+        mHashByDate = hashByDate;
+    }
+
+    /**
+     * Loads the hashes of all the weather rows stored for the location.
+     */
+    static StoredForecast load(ContentResolver resolver, long locationId) {
+        Map<Long, Long> hashByDate = new HashMap<Long, Long>();
+        Cursor cursor = resolver.query(WeatherContract.WeatherEntry.CONTENT_URI,
+                HASH_PROJECTION,
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(locationId)},
+                null);
+        if (cursor == null) {
+            return new StoredForecast(hashByDate);
+        }
+        try {
+            while (cursor.moveToNext()) {
+                hashByDate.put(cursor.getLong(INDEX_DATE), hashOf(
+                        cursor.getInt(INDEX_WEATHER_ID),
+                        cursor.getString(INDEX_SHORT_DESC),
+                        cursor.getDouble(INDEX_MIN_TEMP),
+                        cursor.getDouble(INDEX_MAX_TEMP),
+                        cursor.getDouble(INDEX_HUMIDITY),
+                        cursor.getDouble(INDEX_PRESSURE),
+                        cursor.getDouble(INDEX_WIND_SPEED),
+                        cursor.getDouble(INDEX_DEGREES)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return new StoredForecast(hashByDate);
+    }
+
+    /**
+     * @param weatherValues a complete weather row, including its date
+     * @return true if the same row is already stored for the location
+     */
+    boolean isUnchanged(ContentValues weatherValues) {
+        // stored dates have been normalized by the provider
+        long date = WeatherContract.normalizeDate(
+                weatherValues.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+        Long storedHash = mHashByDate.get(date);
+        return storedHash != null && storedHash == hashOf(weatherValues);
+    }
+
+    /**
+     * @return true if rows dated after the given (normalized) date are stored for the location
+     */
+    boolean hasDaysAfter(long date) {
+        for (long storedDate : mHashByDate.keySet()) {
+            if (storedDate > date) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the hash of the row stored for the (normalized) date combined with the date, as
+     * {@link #hashOfDay} computes it, or 0 if no row is stored for it
+     */
+    long getDayHash(long date) {
+        Long storedHash = mHashByDate.get(date);
+        return storedHash != null ? storedHash * 31 + date : 0;
+    }
+
+    /**
+     * @return a hash over the shown columns of a weather row and its (normalized) date, which
+     * also changes when the row becomes another day's
+     */
+    static long hashOfDay(ContentValues weatherValues, long date) {
+        return hashOf(weatherValues) * 31 + date;
+    }
+
+    /**
+     * @return a hash over the columns of a weather row which are shown to the user
+     */
+    static long hashOf(ContentValues weatherValues) {
+        return hashOf(
+                weatherValues.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID),
+                weatherValues.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC),
+                weatherValues.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP),
+                weatherValues.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP),
+                weatherValues.getAsDouble(WeatherContract.WeatherEntry.COLUMN_HUMIDITY),
+                weatherValues.getAsDouble(WeatherContract.WeatherEntry.COLUMN_PRESSURE),
+                weatherValues.getAsDouble(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED),
+                weatherValues.getAsDouble(WeatherContract.WeatherEntry.COLUMN_DEGREES));
+    }
+
+    private static long hashOf(int weatherId, String description, double min, double max,
+                               double humidity, double pressure, double windSpeed,
+                               double degrees) {
+        // 64 bit FNV-1a over the values, so collisions between two versions of a day are
+        // practically impossible
+        long hash = 0xcbf29ce484222325L;
+        hash = mix(hash, weatherId);
+        hash = mix(hash, description != null ? description.hashCode() : 0);
+        hash = mix(hash, Double.doubleToLongBits(min));
+        hash = mix(hash, Double.doubleToLongBits(max));
+        hash = mix(hash, Double.doubleToLongBits(humidity));
+        hash = mix(hash, Double.doubleToLongBits(pressure));
+        hash = mix(hash, Double.doubleToLongBits(windSpeed));
+        hash = mix(hash, Double.doubleToLongBits(degrees));
+        return hash;
+    }
+
+    private static long mix(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash ^= (value >>> (i * 8)) & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
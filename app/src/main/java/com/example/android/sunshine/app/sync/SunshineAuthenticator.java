@@ -80,4 +80,12 @@ public class SunshineAuthenticator extends AbstractAccountAuthenticator {
             Account account, String[] strings) throws NetworkErrorException {
         throw new UnsupportedOperationException();
     }
+
+    // The account is removed in the settings, the sync adapter must not keep using it
+    @Override
+    public Bundle getAccountRemovalAllowed(
+            AccountAuthenticatorResponse r, Account account) throws NetworkErrorException {
+        SunshineSyncAdapter.forgetSyncAccount();
+        return super.getAccountRemovalAllowed(r, account);
+    }
 }
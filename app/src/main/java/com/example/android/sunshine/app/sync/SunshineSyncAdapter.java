@@ -7,11 +7,12 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
@@ -22,41 +23,38 @@ import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.UpdateWearableService;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.common.data.Weather;
+import com.example.android.sunshine.app.data.LocationIdCache;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         GoogleApiClient.ConnectionCallbacks,
@@ -65,12 +63,17 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
-    // Interval at which to sync with the weather, in seconds.
+    // Default interval at which to sync with the weather, in seconds.  The SyncScheduler adapts
+    // it to the usage after each sync.
     // 60 seconds (1 minute) * 180 = 3 hours
     public static final int SYNC_INTERVAL = 60 * 180;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    // Maximum number of forecasts downloaded at the same time
+    private static final int MAX_PARALLEL_FETCHES = 4;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
+    // Time to wait for the art of the notification before falling back to the bundled one
+    private static final long ART_TIMEOUT_SECONDS = 10;
 
 
     private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
@@ -96,276 +99,429 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
-    public SunshineSyncAdapter(Context context, boolean autoInitialize) {
-        super(context, autoInitialize);
-    }
+    private static volatile Account sSyncAccount;
 
-    @Override
-    public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
-        Log.d(LOG_TAG, "Starting sync");
-        String locationQuery = Utility.getPreferredLocation(getContext());
+    private final WeatherSource mWeatherSource;
+    private final Consumers mConsumers;
+    private final SyncScheduler mScheduler;
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+    /**
+     * The parts of the app and the devices which show the weather of the preferred location.
+     * Each of them is called on a thread of the {@link ConsumerDispatcher}.
+     */
+    interface Consumers {
+        void updateWidgets();
 
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+        void updateMuzei();
 
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+        void notifyWeather(Weather today, SyncTrace trace);
 
-        try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
+        void updateWear(Weather today);
+    }
+
+    public SunshineSyncAdapter(Context context, boolean autoInitialize) {
+        this(context, autoInitialize, new OwmWeatherSource(context));
+    }
+
+    /**
+     * @param weatherSource the service the forecasts are fetched from
+     */
+    SunshineSyncAdapter(Context context, boolean autoInitialize, WeatherSource weatherSource) {
+        super(context, autoInitialize);
+        mWeatherSource = weatherSource;
+        mConsumers = new Consumers() {
+            @Override
+            public void updateWidgets() {
+                SunshineSyncAdapter.this.updateWidgets();
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+
+            @Override
+            public void updateMuzei() {
+                SunshineSyncAdapter.this.updateMuzei();
             }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+            @Override
+            public void notifyWeather(Weather today, SyncTrace trace) {
+                SunshineSyncAdapter.this.notifyWeather(today, trace);
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+
+            @Override
+            public void updateWear(Weather today) {
+                SunshineSyncAdapter.this.updateWear(today);
             }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
+        };
+        mScheduler = new SyncScheduler(context);
+    }
+
+    /**
+     * @param weatherSource the service the forecasts are fetched from
+     * @param consumers the consumers told about the changes of the preferred location
+     * @param scheduler adapts the periodic sync after every sync
+     */
+    SunshineSyncAdapter(Context context, boolean autoInitialize, WeatherSource weatherSource,
+                        Consumers consumers, SyncScheduler scheduler) {
+        super(context, autoInitialize);
+        mWeatherSource = weatherSource;
+        mConsumers = consumers;
+        mScheduler = scheduler;
+    }
+
+    @Override
+    public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
+        Log.d(LOG_TAG, "Starting sync");
+        SyncRequestGate.onSyncStarted();
+        String preferredLocation = Utility.getPreferredLocation(getContext());
+        SyncTrace trace = new SyncTrace();
+        ConsumerDispatcher consumers = new ConsumerDispatcher(trace);
+        try {
+            syncLocations(preferredLocation, syncResult, trace, consumers);
+        } finally {
+            // the process may go away once the sync has returned
+            consumers.awaitAll();
+            trace.finish(syncResult.toString());
+            int coalesced = SyncRequestGate.onSyncFinished();
+            if (coalesced > 0) {
+                Log.d(LOG_TAG, coalesced + " sync requests coalesced, "
+                        + SyncRequestGate.getCoalescedTotal() + " in total");
             }
         }
-        return;
+
+        // Requests made while this sync was running have been coalesced into it.  That's only
+        // wrong if the location has changed in the meantime.
+        if (!preferredLocation.equals(Utility.getPreferredLocation(getContext()))) {
+            syncImmediately(getContext());
+        }
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
+     * Fetches and stores the forecasts of all tracked locations and updates the consumers of
+     * the preferred location.
      *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * @param trace receives the time spent in each phase
+     * @param consumers runs the consumers of the preferred location
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
+    private void syncLocations(String preferredLocation, SyncResult syncResult, SyncTrace trace,
+                               ConsumerDispatcher consumers) {
+        List<String> locations = Utility.getTrackedLocations(getContext());
+
+        // Fetch all locations concurrently, so the sync takes about as long as the slowest
+        // request rather than all of them together.  Each fetch stores its location itself, so
+        // only the days of the responses being stored are held at any time.
+        long phaseStart = System.nanoTime();
+        List<LocationForecast> forecasts = fetchForecasts(locations);
+        trace.addSince("fetch and store", phaseStart);
+        for (LocationForecast forecast : forecasts) {
+            String location = forecast.getLocationSetting();
+            trace.add("  connect " + location, forecast.getConnectNanos());
+            trace.add("  download " + location, forecast.getDownloadNanos());
+            trace.add("  parse " + location, forecast.getParseNanos());
+            trace.add("  store " + location, forecast.getStoreNanos());
+        }
 
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
+        LocationForecast preferredForecast = null;
+        int written = 0;
+        int dayCount = 0;
+        int notModifiedCount = 0;
+        for (LocationForecast forecast : forecasts) {
+            if (forecast.getLocationSetting().equals(preferredLocation)) {
+                preferredForecast = forecast;
+            }
+            if (forecast.isStored()) {
+                written += forecast.getWrittenCount();
+                dayCount += forecast.getDayCount();
+                syncResult.stats.numUpdates += forecast.getUpdatedCount();
+                syncResult.stats.numDeletes += forecast.getDeletedCount();
+            } else if (forecast.hasData()) {
+                syncResult.databaseError = true;
+            } else if (forecast.isNotModified()) {
+                notModifiedCount++;
+            }
+        }
+        syncResult.stats.numEntries += dayCount;
+        syncResult.stats.numInserts += written;
+
+        // Network errors are worth retrying soon, a response we can't make sense of isn't.
+        // Fetches which didn't even return a result count as network errors.
+        int missingCount = locations.size() - forecasts.size();
+        syncResult.stats.numIoExceptions += missingCount;
+        boolean softError = missingCount > 0;
+        for (LocationForecast forecast : forecasts) {
+            switch (forecast.getStatus()) {
+                case LOCATION_STATUS_SERVER_DOWN:
+                    syncResult.stats.numIoExceptions++;
+                    softError = true;
+                    break;
+                case LOCATION_STATUS_SERVER_INVALID:
+                    syncResult.stats.numParseExceptions++;
+                    break;
+                default:
+                    break;
+            }
+        }
 
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
+        // Move old data to the history so we don't build up an endless forecast.  Days pass
+        // whether or not the server had anything new for us.
+        long yesterday = WeatherContract.getStartOfDay(
+                WeatherContract.getDay(System.currentTimeMillis()) - 1);
+        ForecastBatch archive = new ForecastBatch(getContext().getContentResolver());
+        archive.archiveUpTo(yesterday);
+        int preferredDeleted;
+        phaseStart = System.nanoTime();
+        try {
+            ContentProviderResult[] results = archive.commit();
+            trace.addSince("archive", phaseStart);
+            // the consumers only show the preferred location
+            preferredDeleted = archive.getDeletedCount(results, LocationIdCache.getLocationId(
+                    getContext().getContentResolver(), preferredLocation));
+            syncResult.stats.numDeletes += archive.getDeletedCount(results);
+        } catch (RemoteException | OperationApplicationException e) {
+            Log.e(LOG_TAG, "Error archiving forecasts", e);
+            syncResult.databaseError = true;
+            return;
+        }
 
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
+        if (preferredForecast != null) {
+            setLocationStatus(getContext(), preferredForecast.getStatus());
+            if (preferredForecast.isStored()) {
+                int preferredChanged = preferredForecast.getWrittenCount()
+                        + preferredForecast.getDeletedCount() + preferredDeleted;
+                notifyConsumers(preferredLocation, preferredForecast.getTodayHash(),
+                        preferredChanged > 0, consumers, trace);
+            } else if (preferredForecast.isNotModified()) {
+                // Nothing new, but the wearable may still be due and the day may have changed
+                notifyConsumers(preferredLocation, getStoredTodayHash(preferredLocation),
+                        preferredDeleted > 0, consumers, trace);
+            }
+        }
+        Log.d(LOG_TAG, "Sync Complete. " + forecasts.size() + " Locations, "
+                + dayCount + " Days, " + written + " Changed, "
+                + notModifiedCount + " Not Modified");
+
+        phaseStart = System.nanoTime();
+        SyncRetryPolicy retryPolicy = new SyncRetryPolicy(getContext());
+        if (softError) {
+            retryPolicy.onSoftError(syncResult);
+        } else {
+            retryPolicy.onSuccess();
+        }
+        mScheduler.onSyncFinished(dayCount > 0 || notModifiedCount > 0,
+                dayCount, written);
+        trace.addSince("schedule", phaseStart);
 
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
+        compactHistory(trace);
+    }
 
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+    /**
+     * Rolls up the history which has aged out of its tier, at most once a day.
+     */
+    private void compactHistory(SyncTrace trace) {
+        Context context = getContext();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String lastCompactionKey = context.getString(R.string.pref_last_history_compaction);
+        long now = System.currentTimeMillis();
+        if (now - prefs.getLong(lastCompactionKey, 0) < DAY_IN_MILLIS) {
+            return;
+        }
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+        long phaseStart = System.nanoTime();
+        context.getContentResolver().update(WeatherContract.HistoryEntry.COMPACTION_URI,
+                new ContentValues(), null, null);
+        trace.addSince("compact history", phaseStart);
+        prefs.edit().putLong(lastCompactionKey, now).apply();
+    }
 
-        final String OWM_MESSAGE_CODE = "cod";
+    /**
+     * Fetches and stores the forecasts of the given locations on a bounded pool of worker
+     * threads.
+     *
+     * @return the forecasts, in the order of the locations, without their days
+     */
+    private List<LocationForecast> fetchForecasts(List<String> locations) {
+        List<LocationForecast> forecasts = new ArrayList<LocationForecast>(locations.size());
+        if (locations.size() == 1) {
+            // no need for another thread
+            forecasts.add(fetchForecast(locations.get(0)));
+            return forecasts;
+        }
 
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(locations.size(), MAX_PARALLEL_FETCHES));
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+            List<Future<LocationForecast>> futures =
+                    new ArrayList<Future<LocationForecast>>(locations.size());
+            for (final String location : locations) {
+                futures.add(executor.submit(new Callable<LocationForecast>() {
+                    @Override
+                    public LocationForecast call() {
+                        return fetchForecast(location);
+                    }
+                }));
+            }
+            for (Future<LocationForecast> future : futures) {
+                try {
+                    forecasts.add(future.get());
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Error fetching forecast", e);
                 }
             }
+        } catch (InterruptedException e) {
+            // the sync has been canceled, go on with what has been stored so far
+            Log.d(LOG_TAG, "Sync interrupted");
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+        return forecasts;
+    }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+    /**
+     * Downloads, parses and stores the forecast of one location.  Safe to be called from any
+     * thread.
+     */
+    private LocationForecast fetchForecast(String locationSetting) {
+        LocationForecast forecast = mWeatherSource.fetchForecast(locationSetting,
+                hasForecastForToday(locationSetting));
+        if (forecast.hasData()) {
+            storeForecast(forecast);
+        }
+        return forecast;
+    }
 
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
+    /**
+     * Replaces the stored forecast of the location in a transaction of its own, then drops the
+     * received days.  The validators of the response are kept once its days are stored.
+     */
+    private void storeForecast(LocationForecast forecast) {
+        long start = System.nanoTime();
+        ForecastBatch batch = new ForecastBatch(getContext().getContentResolver());
+        try {
+            int written = batch.add(forecast);
+            ContentProviderResult[] results = batch.commit();
+            forecast.setStored(written, batch.getUpdatedCount(results),
+                    batch.getDeletedCount(results));
+        } catch (RemoteException | OperationApplicationException e) {
+            Log.e(LOG_TAG, "Error storing forecast of " + forecast.getLocationSetting(), e);
+            return;
+        } finally {
+            forecast.dropDays();
+            forecast.setStoreNanos(System.nanoTime() - start);
+        }
+        new ForecastResponseCache(getContext()).storeValidators(forecast.getRequestUri(),
+                forecast.getETag(), forecast.getLastModified());
+    }
 
-                ContentValues weatherValues = new ContentValues();
+    /**
+     * Only wakes up the consumers whose data has changed.  All of them show the preferred
+     * location; today's forecast is what Muzei, the wearable and the notification show, and it
+     * also changes when the day does.
+     *
+     * The consumers run in parallel on the {@link ConsumerDispatcher}, this returns right away
+     * and the sync waits for them before it returns.
+     */
+    private void notifyConsumers(String preferredLocation, long todayHash, boolean dataChanged,
+                                 ConsumerDispatcher consumers, final SyncTrace trace) {
+        boolean todayChanged = isTodayChanged(todayHash);
+        boolean wearUpdateDue = todayChanged || isWearUpdateDue();
+        // the notification is shown once a day
+        boolean notificationDue = isNotificationDue();
+
+        // Read today's forecast once for everyone who needs it
+        final Weather today = wearUpdateDue || notificationDue
+                ? fetchActual(getContext(), preferredLocation)
+                : null;
+
+        if (dataChanged || todayChanged) {
+            consumers.dispatch("widgets", new Runnable() {
+                @Override
+                public void run() {
+                    mConsumers.updateWidgets();
+                }
+            });
+        }
+        if (todayChanged) {
+            consumers.dispatch("muzei", new Runnable() {
+                @Override
+                public void run() {
+                    mConsumers.updateMuzei();
+                }
+            });
+        }
+        if (notificationDue) {
+            consumers.dispatch("notification", new Runnable() {
+                @Override
+                public void run() {
+                    mConsumers.notifyWeather(today, trace);
+                }
+            });
+        }
+        if (wearUpdateDue) {
+            consumers.dispatch("wear", new Runnable() {
+                @Override
+                public void run() {
+                    mConsumers.updateWear(today);
+                }
+            });
+        }
+    }
 
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+    /**
+     * Compares today's forecast with the one the consumers have been told about last and
+     * remembers it.
+     *
+     * @return true if today's forecast differs from the one announced last
+     */
+    private boolean isTodayChanged(long todayHash) {
+        Context context = getContext();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String lastTodayKey = context.getString(R.string.pref_last_today_hash);
+        if (prefs.contains(lastTodayKey) && prefs.getLong(lastTodayKey, 0) == todayHash) {
+            return false;
+        }
+        prefs.edit().putLong(lastTodayKey, todayHash).apply();
+        return true;
+    }
 
-                cVVector.add(weatherValues);
-            }
+    /**
+     * @return the hash of today's stored forecast of the location, as
+     * {@link LocationForecast#getTodayHash} computes it for a received one
+     */
+    private long getStoredTodayHash(String locationSetting) {
+        ContentResolver resolver = getContext().getContentResolver();
+        long locationId = LocationIdCache.getLocationId(resolver, locationSetting);
+        if (locationId == -1) {
+            return 0;
+        }
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        return StoredForecast.load(resolver, locationId).getDayHash(today);
+    }
 
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-                updateWear();
-            }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+    /**
+     * The wearable considers its weather outdated after {@link Weather#MAX_AGE}, so it has to be
+     * refreshed well before that even if nothing has changed.
+     */
+    private boolean isWearUpdateDue() {
+        Context context = getContext();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        long lastWearUpdate = prefs.getLong(context.getString(R.string.pref_last_wear_update), 0);
+        return System.currentTimeMillis() - lastWearUpdate >= Weather.MAX_AGE / 2;
+    }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+    /**
+     * Checks whether the database still holds today's forecast for the location.  Without it a
+     * "not modified" answer to a conditional request would leave us with nothing to show.
+     */
+    private boolean hasForecastForToday(String locationSetting) {
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                locationSetting, System.currentTimeMillis());
+        Cursor cursor = getContext().getContentResolver().query(weatherUri,
+                new String[]{WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID},
+                null, null, null);
+        if (cursor == null) {
+            return false;
         }
+        boolean hasForecast = cursor.moveToFirst();
+        cursor.close();
+        return hasForecast;
     }
 
     private void updateWidgets() {
@@ -397,24 +553,26 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         Log.e(LOG_TAG, "onConnectionFailed: " + connectionResult.getErrorMessage());
     }
 
-    private void updateWear() {
+    private void updateWear(Weather today) {
         Intent startWearService = new Intent(ACTION_DATA_UPDATED).setClass(getContext(), UpdateWearableService.class);
-        Weather actual = fetchActual(getContext());
-        startWearService.putExtra(UpdateWearableService.KEY_WEATHER_UPDATE_INTENT, actual);
+        startWearService.putExtra(UpdateWearableService.KEY_WEATHER_UPDATE_INTENT, today);
         getContext().startService(startWearService);
-    }
 
-    private Weather fetchActual(Context context) {
-        String locationQuery = Utility.getPreferredLocation(context);
+        PreferenceManager.getDefaultSharedPreferences(getContext()).edit()
+                .putLong(getContext().getString(R.string.pref_last_wear_update), System.currentTimeMillis())
+                .apply();
+    }
 
+    private Weather fetchActual(Context context, String locationQuery) {
         Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
 
         // we'll query our contentProvider, as always
         Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
 
+        Weather actual = new Weather();
         if (cursor != null) {
             if (cursor.moveToFirst()) {
-                return new Weather(
+                actual = new Weather(
                         cursor.getInt(INDEX_WEATHER_ID),
                         cursor.getDouble(INDEX_MAX_TEMP),
                         cursor.getDouble(INDEX_MIN_TEMP),
@@ -424,10 +582,13 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
             cursor.close();
         }
 
-        return new Weather();
+        return actual;
     }
 
-    private void notifyWeather() {
+    /**
+     * @return true if notifications are enabled and none has been shown for a day
+     */
+    private boolean isNotificationDue() {
         Context context = getContext();
         //checking the last update and notify if it' the first of the day
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
@@ -435,139 +596,92 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
                 Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
 
-        if ( displayNotifications ) {
-
-            String lastNotificationKey = context.getString(R.string.pref_last_notification);
-            long lastSync = prefs.getLong(lastNotificationKey, 0);
-
-            if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
-                Weather actual = fetchActual(context);
-
-                int iconId = Utility.getIconResourceForWeatherCondition(actual.getWeatherId());
-                Resources resources = context.getResources();
-                int artResourceId = Utility.getArtResourceForWeatherCondition(actual.getWeatherId());
-                String artUrl = Utility.getArtUrlForWeatherCondition(context, actual.getWeatherId());
-
-                // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                // Prior to that, we use a fixed size
-                @SuppressLint("InlinedApi")
-                int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                        ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                        : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                @SuppressLint("InlinedApi")
-                int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                        ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                        : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                // Retrieve the large icon
-                Bitmap largeIcon;
-                try {
-                    largeIcon = Glide.with(context)
-                            .load(artUrl)
-                            .asBitmap()
-                            .error(artResourceId)
-                            .fitCenter()
-                            .into(largeIconWidth, largeIconHeight).get();
-                } catch (InterruptedException | ExecutionException e) {
-                    Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                    largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-                }
-                String title = context.getString(R.string.app_name);
-
-                // Define the text of the forecast.
-                String contentText = String.format(context.getString(R.string.format_notification),
-                        actual.getResourceName(),
-                        Utility.formatTemperature(context, actual.getHighTemperature()),
-                        Utility.formatTemperature(context, actual.getLowTemperature()));
-
-                // NotificationCompatBuilder is a very convenient way to build backward-compatible
-                // notifications.  Just throw in some data.
-                NotificationCompat.Builder mBuilder =
-                        new NotificationCompat.Builder(getContext())
-                                .setColor(resources.getColor(R.color.primary_light))
-                                .setSmallIcon(iconId)
-                                .setLargeIcon(largeIcon)
-                                .setContentTitle(title)
-                                .setContentText(contentText);
-
-                // Make something interesting happen when the user clicks on the notification.
-                // In this case, opening the app is sufficient.
-                Intent resultIntent = new Intent(context, MainActivity.class);
-
-                // The stack builder object will contain an artificial back stack for the
-                // started Activity.
-                // This ensures that navigating backward from the Activity leads out of
-                // your application to the Home screen.
-                TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
-                stackBuilder.addNextIntent(resultIntent);
-                PendingIntent resultPendingIntent =
-                        stackBuilder.getPendingIntent(
-                                0,
-                                PendingIntent.FLAG_UPDATE_CURRENT
-                        );
-                mBuilder.setContentIntent(resultPendingIntent);
-
-                NotificationManager mNotificationManager =
-                        (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
-                // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
-                mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
-
-                //refreshing last sync
-                SharedPreferences.Editor editor = prefs.edit();
-                editor.putLong(lastNotificationKey, System.currentTimeMillis());
-                editor.commit();
-            }
-        }
+        String lastNotificationKey = context.getString(R.string.pref_last_notification);
+        long lastSync = prefs.getLong(lastNotificationKey, 0);
+        return displayNotifications && System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS;
     }
 
-    /**
-     * Helper method to handle insertion of a new location in the weather database.
-     *
-     * @param locationSetting The location string used to request updates from the server.
-     * @param cityName A human-readable city name, e.g "Mountain View"
-     * @param lat the latitude of the city
-     * @param lon the longitude of the city
-     * @return the row ID of the added location.
-     */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
+    private void notifyWeather(Weather actual, SyncTrace trace) {
+        Context context = getContext();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String lastNotificationKey = context.getString(R.string.pref_last_notification);
+
+        int iconId = Utility.getIconResourceForWeatherCondition(actual.getWeatherId());
+        Resources resources = context.getResources();
+        int artResourceId = Utility.getArtResourceForWeatherCondition(actual.getWeatherId());
+        String artUrl = Utility.getArtUrlForWeatherCondition(context, actual.getWeatherId());
+
+        // On Honeycomb and higher devices, we can retrieve the size of the large icon
+        // Prior to that, we use a fixed size
+        @SuppressLint("InlinedApi")
+        int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+        @SuppressLint("InlinedApi")
+        int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+
+        // Retrieve the large icon
+        Bitmap largeIcon;
+        long artStart = System.nanoTime();
+        try {
+            largeIcon = Glide.with(context)
+                    .load(artUrl)
+                    .asBitmap()
+                    .error(artResourceId)
+                    .fitCenter()
+                    .into(largeIconWidth, largeIconHeight).get(ART_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            // a slow art server only costs us the nicer icon
+            Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
+            largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
         }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
+        trace.addSince("notification art", artStart);
+        String title = context.getString(R.string.app_name);
+
+        // Define the text of the forecast.
+        String contentText = String.format(context.getString(R.string.format_notification),
+                actual.getResourceName(),
+                Utility.formatTemperature(context, actual.getHighTemperature()),
+                Utility.formatTemperature(context, actual.getLowTemperature()));
+
+        // NotificationCompatBuilder is a very convenient way to build backward-compatible
+        // notifications.  Just throw in some data.
+        NotificationCompat.Builder mBuilder =
+                new NotificationCompat.Builder(getContext())
+                        .setColor(resources.getColor(R.color.primary_light))
+                        .setSmallIcon(iconId)
+                        .setLargeIcon(largeIcon)
+                        .setContentTitle(title)
+                        .setContentText(contentText);
+
+        // Make something interesting happen when the user clicks on the notification.
+        // In this case, opening the app is sufficient.
+        Intent resultIntent = new Intent(context, MainActivity.class);
+
+        // The stack builder object will contain an artificial back stack for the
+        // started Activity.
+        // This ensures that navigating backward from the Activity leads out of
+        // your application to the Home screen.
+        TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
+        stackBuilder.addNextIntent(resultIntent);
+        PendingIntent resultPendingIntent =
+                stackBuilder.getPendingIntent(
+                        0,
+                        PendingIntent.FLAG_UPDATE_CURRENT
+                );
+        mBuilder.setContentIntent(resultPendingIntent);
+
+        NotificationManager mNotificationManager =
+                (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
+        // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
+        mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
+
+        //refreshing last sync
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.putLong(lastNotificationKey, System.currentTimeMillis());
+        editor.commit();
     }
 
     /**
@@ -590,10 +704,15 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     }
 
     /**
-     * Helper method to have the sync adapter sync immediately
+     * Helper method to have the sync adapter sync immediately.  The request is dropped if a
+     * sync is already queued or running.
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
+        // Bursts of requests, e.g. repeated taps on the wearable, result in a single sync
+        if (!SyncRequestGate.tryRequest()) {
+            return;
+        }
         Bundle bundle = new Bundle();
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
@@ -610,6 +729,13 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
      * @return a fake account.
      */
     public static Account getSyncAccount(Context context) {
+        // The account never changes once it exists, so it only has to be resolved once, until
+        // it is removed
+        Account syncAccount = sSyncAccount;
+        if (syncAccount != null) {
+            return syncAccount;
+        }
+
         // Get an instance of the Android account manager
         AccountManager accountManager =
                 (AccountManager) context.getSystemService(Context.ACCOUNT_SERVICE);
@@ -626,6 +752,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
          * If successful, return the Account object, otherwise report an error.
          */
             if (!accountManager.addAccountExplicitly(newAccount, "", null)) {
+                forgetSyncAccount();
                 return null;
             }
             /*
@@ -637,9 +764,18 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
 
             onAccountCreated(newAccount, context);
         }
+        sSyncAccount = newAccount;
         return newAccount;
     }
 
+    /**
+     * Drops the cached account, so the next {@link #getSyncAccount} looks it up again.  Called
+     * when the account is removed, e.g. by the user in the settings.
+     */
+    static void forgetSyncAccount() {
+        sSyncAccount = null;
+    }
+
     private static void onAccountCreated(Account newAccount, Context context) {
         /*
          * Since we've created an account
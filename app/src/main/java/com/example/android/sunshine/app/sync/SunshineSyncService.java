@@ -5,10 +5,19 @@ import android.content.Intent;
 import android.os.IBinder;
 import android.util.Log;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
 public class SunshineSyncService extends Service {
     private static final Object sSyncAdapterLock = new Object();
     private static SunshineSyncAdapter sSunshineSyncAdapter = null;
 
+    // Pass this to dumpsys to also write the sync traces to a file
+    private static final String ARG_EXPORT = "--export";
+    private static final String EXPORT_FILE_NAME = "sync_traces.txt";
+
     @Override
     public void onCreate() {
         Log.d("SunshineSyncService", "onCreate - SunshineSyncService");
@@ -23,4 +32,23 @@ public class SunshineSyncService extends Service {
     public IBinder onBind(Intent intent) {
         return sSunshineSyncAdapter.getSyncAdapterBinder();
     }
-}
\ No newline at end of file
+
+    /**
+     * Prints the timings of the last syncs, see {@link SyncTrace}.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("Coalesced sync requests: " + SyncRequestGate.getCoalescedTotal());
+        writer.println("Last " + SyncTrace.CAPACITY + " syncs:");
+        SyncTrace.dump(writer);
+
+        if (args != null && Arrays.asList(args).contains(ARG_EXPORT)) {
+            File file = new File(getFilesDir(), EXPORT_FILE_NAME);
+            if (SyncTrace.export(file)) {
+                writer.println("Exported to " + file);
+            } else {
+                writer.println("Export to " + file + " failed");
+            }
+        }
+    }
+}
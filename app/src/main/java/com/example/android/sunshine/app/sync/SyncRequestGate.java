@@ -0,0 +1,70 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+
+/**
+ * Collapses immediate sync requests which arrive while a sync is already queued or running
+ * into that sync.
+ *
+ * The state is only kept in memory, which is fine as the sync adapter runs in the app's
+ * process.  A queued request which the sync manager never starts, e.g. because the account's
+ * sync has been disabled, is forgotten after {@link #QUEUED_TIMEOUT_MILLIS}.
+ */
+class SyncRequestGate {
+
+    private static final long QUEUED_TIMEOUT_MILLIS = 60 * 1000;
+
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_QUEUED = 1;
+    private static final int STATE_RUNNING = 2;
+
+    private static int sState = STATE_IDLE;
+    private static long sQueuedAt;
+    private static int sCoalesced;
+    private static long sCoalescedTotal;
+
+    private SyncRequestGate() {}
+
+    /**
+     * @return true if a sync has to be requested, false if the request has been coalesced
+     * with the one queued or running
+     */
+    static synchronized boolean tryRequest() {
+        long now = SystemClock.elapsedRealtime();
+        if (sState == STATE_RUNNING
+                || (sState == STATE_QUEUED && now - sQueuedAt < QUEUED_TIMEOUT_MILLIS)) {
+            sCoalesced++;
+            sCoalescedTotal++;
+            return false;
+        }
+        sState = STATE_QUEUED;
+        sQueuedAt = now;
+        return true;
+    }
+
+    /**
+     * Called when a sync starts, whether it has been requested through the gate or not.
+     */
+    static synchronized void onSyncStarted() {
+        sState = STATE_RUNNING;
+    }
+
+    /**
+     * Called when a sync has finished, successfully or not.
+     *
+     * @return the number of requests which have been coalesced into this sync
+     */
+    static synchronized int onSyncFinished() {
+        int coalesced = sCoalesced;
+        sCoalesced = 0;
+        sState = STATE_IDLE;
+        return coalesced;
+    }
+
+    /**
+     * @return the number of requests coalesced since the process started
+     */
+    static synchronized long getCoalescedTotal() {
+        return sCoalescedTotal;
+    }
+}
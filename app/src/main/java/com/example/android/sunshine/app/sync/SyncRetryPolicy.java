@@ -0,0 +1,79 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.SyncResult;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+
+import java.util.Random;
+
+/**
+ * Decides when a sync which failed with a soft error, e.g. a network error, is retried.
+ *
+ * Retries are spaced with capped exponential backoff plus jitter, so devices which failed at
+ * the same time don't all come back at once.  After {@link #MAX_ATTEMPTS} failed attempts in a
+ * row we give up and wait for the next periodic sync.
+ */
+class SyncRetryPolicy {
+
+    private static final String LOG_TAG = SyncRetryPolicy.class.getSimpleName();
+
+    static final int MAX_ATTEMPTS = 5;
+    static final long BASE_DELAY_SECONDS = 30;
+    static final long MAX_DELAY_SECONDS = 30 * 60;
+
+    private static final Random sRandom = new Random();
+
+    private final Context mContext;
+    private final SharedPreferences mPrefs;
+
+    SyncRetryPolicy(Context context) {
+        mContext = context;
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+    }
+
+    /**
+     * Resets the backoff after a sync without soft errors.
+     */
+    void onSuccess() {
+        String attemptKey = mContext.getString(R.string.pref_sync_failed_attempts);
+        if (mPrefs.getInt(attemptKey, 0) != 0) {
+            mPrefs.edit().putInt(attemptKey, 0).apply();
+        }
+    }
+
+    /**
+     * Tells the sync manager when to retry a sync which failed with a soft error, or that it
+     * shouldn't retry at all once the budget is used up.  The soft error itself has to be
+     * reported in the stats of the sync result.
+     */
+    void onSoftError(SyncResult syncResult) {
+        String attemptKey = mContext.getString(R.string.pref_sync_failed_attempts);
+        int attempt = mPrefs.getInt(attemptKey, 0) + 1;
+
+        if (attempt >= MAX_ATTEMPTS) {
+            Log.d(LOG_TAG, "Giving up after " + attempt + " failed syncs");
+            syncResult.tooManyRetries = true;
+            mPrefs.edit().putInt(attemptKey, 0).apply();
+            return;
+        }
+
+        long delay = computeDelay(attempt, sRandom);
+        Log.d(LOG_TAG, "Sync failed " + attempt + " times, retrying in " + delay + "s");
+        syncResult.delayUntil = System.currentTimeMillis() / 1000 + delay;
+        mPrefs.edit().putInt(attemptKey, attempt).apply();
+    }
+
+    /**
+     * @param attempt the number of failed attempts so far, starting with 1
+     * @return the delay before the next attempt in seconds, between half and all of the capped
+     * exponential backoff
+     */
+    static long computeDelay(int attempt, Random random) {
+        long backoff = Math.min(MAX_DELAY_SECONDS, BASE_DELAY_SECONDS << Math.min(attempt - 1, 16));
+        return backoff / 2 + (long) (random.nextDouble() * (backoff / 2));
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.android.sunshine.app.sync;
+
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.preference.PreferenceManager;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.common.data.Weather;
+import com.example.android.sunshine.app.widget.DetailWidgetProvider;
+import com.example.android.sunshine.app.widget.TodayWidgetProvider;
+
+/**
+ * Picks the interval of the periodic sync after every sync, depending on how fresh the data
+ * is, who is showing it, the network we are on and how much the forecast has been changing.
+ */
+class SyncScheduler {
+
+    private static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    // Bounds of the periodic sync interval, in seconds
+    static final int MIN_SYNC_INTERVAL = 60 * 60;
+    static final int MAX_SYNC_INTERVAL = 60 * 60 * 12;
+
+    // The wearable considers its data outdated after Weather.MAX_AGE.  Syncing at least twice
+    // within that time makes sure it is refreshed before, even if a sync is skipped.
+    static final int WEAR_SYNC_INTERVAL = (int) (Weather.MAX_AGE / 1000 / 2);
+
+    // Without any widget, wearable or Muzei there's nobody to look at the data between app starts
+    static final int IDLE_SYNC_INTERVAL = 60 * 60 * 6;
+
+    // A wearable which hasn't been seen for this long is not considered active anymore
+    private static final long WEAR_ACTIVE_MILLIS = 1000 * 60 * 60 * 24;
+
+    // Weight of the latest sync in the moving average of the share of changed days
+    private static final float VOLATILITY_WEIGHT = 0.3f;
+
+    private final Context mContext;
+    private final SharedPreferences mPrefs;
+
+    SyncScheduler(Context context) {
+        mContext = context;
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+    }
+
+    /**
+     * Records the outcome of a sync and reschedules the periodic sync if its interval should
+     * change.
+     *
+     * @param fresh true if the server has sent new data or confirmed the stored one with
+     *              "not modified"
+     * @param dayCount the number of days received, 0 if the sync failed or nothing was modified
+     * @param changedCount the number of days which differed from the stored ones
+     */
+    void onSyncFinished(boolean fresh, int dayCount, int changedCount) {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        if (dayCount > 0) {
+            float volatility = mPrefs.getFloat(mContext.getString(R.string.pref_forecast_volatility), 0.5f);
+            volatility += VOLATILITY_WEIGHT * ((float) changedCount / dayCount - volatility);
+            editor.putFloat(mContext.getString(R.string.pref_forecast_volatility), volatility);
+        }
+        if (fresh) {
+            editor.putLong(mContext.getString(R.string.pref_last_sync), System.currentTimeMillis());
+        }
+        editor.apply();
+
+        int syncInterval = computeSyncInterval();
+        String syncIntervalKey = mContext.getString(R.string.pref_sync_interval);
+        if (mPrefs.getInt(syncIntervalKey, SunshineSyncAdapter.SYNC_INTERVAL) != syncInterval) {
+            Log.d(LOG_TAG, "Sync interval changed to " + syncInterval + "s");
+            SunshineSyncAdapter.configurePeriodicSync(mContext, syncInterval, syncInterval / 3);
+            mPrefs.edit().putInt(syncIntervalKey, syncInterval).apply();
+        }
+    }
+
+    /**
+     * @return the interval of the periodic sync in seconds
+     */
+    int computeSyncInterval() {
+        boolean wearActive = isWearActive();
+        if (!wearActive && !hasWidgets() && !isMuzeiEnabled()) {
+            return IDLE_SYNC_INTERVAL;
+        }
+
+        // Stale data, e.g. after failed syncs, should be replaced soon
+        long dataAge = System.currentTimeMillis()
+                - mPrefs.getLong(mContext.getString(R.string.pref_last_sync), 0);
+        if (dataAge >= SunshineSyncAdapter.SYNC_INTERVAL * 1000L) {
+            return MIN_SYNC_INTERVAL;
+        }
+
+        float syncInterval = SunshineSyncAdapter.SYNC_INTERVAL;
+
+        // A forecast which keeps changing is worth fetching more often, a steady one less
+        float volatility = mPrefs.getFloat(mContext.getString(R.string.pref_forecast_volatility), 0.5f);
+        syncInterval *= 1.5f - volatility;
+
+        // Go easy on metered connections
+        ConnectivityManager cm =
+                (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (ConnectivityManagerCompat.isActiveNetworkMetered(cm)) {
+            syncInterval *= 1.5f;
+        }
+
+        if (wearActive) {
+            syncInterval = Math.min(syncInterval, WEAR_SYNC_INTERVAL);
+        }
+        return Math.max(MIN_SYNC_INTERVAL, Math.min(MAX_SYNC_INTERVAL, (int) syncInterval));
+    }
+
+    private boolean isWearActive() {
+        long lastSeen = mPrefs.getLong(mContext.getString(R.string.pref_last_wear_seen), 0);
+        return System.currentTimeMillis() - lastSeen < WEAR_ACTIVE_MILLIS;
+    }
+
+    // package-private for the tests, which can't rely on the widgets of the device
+    boolean hasWidgets() {
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(mContext);
+        return appWidgetManager.getAppWidgetIds(
+                new ComponentName(mContext, TodayWidgetProvider.class)).length > 0
+                || appWidgetManager.getAppWidgetIds(
+                new ComponentName(mContext, DetailWidgetProvider.class)).length > 0;
+    }
+
+    private boolean isMuzeiEnabled() {
+        return mPrefs.getBoolean(mContext.getString(R.string.pref_muzei_enabled), false);
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The time spent in each phase of a single sync.
+ *
+ * The traces of the last {@link #CAPACITY} syncs are kept in memory, so they can be looked at
+ * with {@code adb shell dumpsys activity service SunshineSyncService}.  Phases may be added from
+ * several threads, the fetches run in parallel.
+ */
+class SyncTrace {
+
+    private static final String LOG_TAG = SyncTrace.class.getSimpleName();
+
+    static final int CAPACITY = 20;
+
+    // Ring buffer of the finished traces, sNext is the slot the next one goes to
+    private static final SyncTrace[] sTraces = new SyncTrace[CAPACITY];
+    private static int sNext;
+
+    private final long mStartedAt = System.currentTimeMillis();
+    private final long mStartNanos = System.nanoTime();
+    private final List<String> mPhases = new ArrayList<String>();
+    private final List<Long> mPhaseNanos = new ArrayList<Long>();
+    private long mTotalNanos;
+    private String mOutcome;
+
+    /**
+     * Records a phase which started at the given {@link System#nanoTime()} and ends now.
+     */
+    void addSince(String phase, long startNanos) {
+        add(phase, System.nanoTime() - startNanos);
+    }
+
+    synchronized void add(String phase, long nanos) {
+        mPhases.add(phase);
+        mPhaseNanos.add(nanos);
+    }
+
+    /**
+     * Ends the sync and keeps its trace, dropping the oldest one if the buffer is full.
+     */
+    void finish(String outcome) {
+        synchronized (this) {
+            mTotalNanos = System.nanoTime() - mStartNanos;
+            mOutcome = outcome;
+        }
+        synchronized (SyncTrace.class) {
+            sTraces[sNext] = this;
+            sNext = (sNext + 1) % CAPACITY;
+        }
+    }
+
+    private synchronized void print(PrintWriter writer, SimpleDateFormat dateFormat) {
+        writer.println(dateFormat.format(new Date(mStartedAt)) + "  total " + formatMillis(mTotalNanos)
+                + "  " + mOutcome);
+        for (int i = 0; i < mPhases.size(); i++) {
+            writer.println("    " + formatMillis(mPhaseNanos.get(i)) + "  " + mPhases.get(i));
+        }
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format(Locale.US, "%8.1fms", nanos / 1000000.0);
+    }
+
+    /**
+     * Prints the kept traces, the oldest first.
+     */
+    static void dump(PrintWriter writer) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+        synchronized (SyncTrace.class) {
+            for (int i = 0; i < CAPACITY; i++) {
+                SyncTrace trace = sTraces[(sNext + i) % CAPACITY];
+                if (trace != null) {
+                    trace.print(writer, dateFormat);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the kept traces to a file, replacing its content.
+     *
+     * @return true if the file has been written
+     */
+    static boolean export(File file) {
+        PrintWriter writer = null;
+        try {
+            writer = new PrintWriter(new FileWriter(file));
+            dump(writer);
+            return !writer.checkError();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error exporting sync traces to " + file, e);
+            return false;
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * A service the forecasts of the tracked locations are fetched from.
+ *
+ * Implementations must be safe to be called from several threads at once, as the sync adapter
+ * fetches locations in parallel.  They must not write to the database.
+ */
+interface WeatherSource {
+
+    /**
+     * Fetches the forecast of a location.  Errors are reported through the status of the
+     * returned forecast rather than thrown.
+     *
+     * @param locationSetting the location as set by the user
+     * @param conditional true if the stored forecast of the location is complete, so the request
+     *                    may be answered with "not modified"
+     * @return the forecast, whose days are dated but not yet assigned to a location row
+     */
+    LocationForecast fetchForecast(String locationSetting, boolean conditional);
+}
@@ -17,7 +17,7 @@ public class Weather implements Parcelable {
     private static final String KEY_LOW_TEMPERATURE = "low_temp";
     private static final String KEY_RESOURCE_NAME = "resource_name";
     private static final String KEY_TIMESTAMP = "timestamp";
-    private static final long MAX_AGE = 1000 * 60 * 60 * 3; // 3 hours
+    public static final long MAX_AGE = 1000 * 60 * 60 * 3; // 3 hours
 
     private int mWeatherId;
     private double mHighTemperature;